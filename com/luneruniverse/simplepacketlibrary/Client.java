@@ -16,6 +16,7 @@ import com.luneruniverse.simplepacketlibrary.accessors.ClientWebSocketAccess;
 import com.luneruniverse.simplepacketlibrary.accessors.RawSocketAccess;
 import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
 import com.luneruniverse.simplepacketlibrary.listeners.PacketListener;
+import com.luneruniverse.simplepacketlibrary.listeners.StreamListener;
 import com.luneruniverse.simplepacketlibrary.packets.Packet;
 
 /**
@@ -23,13 +24,17 @@ import com.luneruniverse.simplepacketlibrary.packets.Packet;
  */
 public class Client extends Connection {
 	
+	private static final TimingWheel TIMING_WHEEL = new TimingWheel("Client Response Timeout");
+	
 	private final String ip;
 	private final int port;
 	private final List<ErrorHandler<Client>> errorHandlers;
 	
 	private int connectTimeout;
 	private boolean useWebSocket;
+	private WebSocketOptions webSocketOptions;
 	private SSLContext ssl;
+	private TransportOptions transportOptions;
 	
 	/**
 	 * Create a client <br>
@@ -40,11 +45,12 @@ public class Client extends Connection {
 	 * @see #start()
 	 */
 	public Client(String ip, int port) {
-		super(new ConcurrentLinkedQueue<>());
+		super(new ConcurrentLinkedQueue<>(), new ConcurrentLinkedQueue<>(), TIMING_WHEEL);
 		this.ip = ip;
 		this.port = port;
 		this.errorHandlers = new ArrayList<>();
 		this.connectTimeout = 5000;
+		this.transportOptions = new TransportOptions();
 		useWebSocket(false);
 	}
 	/**
@@ -93,6 +99,28 @@ public class Client extends Connection {
 		return connectTimeout;
 	}
 	
+	/**
+	 * Set the options for the socket, such as TCP_NODELAY and the buffer sizes <br>
+	 * This takes effect the next time the client is started
+	 * @param transportOptions The options
+	 * @return this
+	 * @see #getTransportOptions()
+	 * @see Server#setTransportOptions(TransportOptions)
+	 */
+	public Client setTransportOptions(TransportOptions transportOptions) {
+		if (transportOptions == null)
+			throw new IllegalArgumentException("The options cannot be null!");
+		this.transportOptions = transportOptions;
+		return this;
+	}
+	/**
+	 * @return The options for the socket
+	 * @see #setTransportOptions(TransportOptions)
+	 */
+	public TransportOptions getTransportOptions() {
+		return transportOptions;
+	}
+	
 	/**
 	 * Specify whether or not this should use a WebSocket rather than a normal Socket <br>
 	 * The server must also be in the same mode <br>
@@ -106,6 +134,26 @@ public class Client extends Connection {
 		this.useWebSocket = useWebSocket;
 		return this;
 	}
+	/**
+	 * Use a WebSocket rather than a normal Socket, with the specified options <br>
+	 * For example, the options can enable permessage-deflate, which the server must also enable for it to be used
+	 * @param options The options, or null for the defaults
+	 * @return this
+	 * @see #useWebSocket(boolean)
+	 * @see #getWebSocketOptions()
+	 * @see Server#useWebSocket(WebSocketOptions)
+	 */
+	public Client useWebSocket(WebSocketOptions options) {
+		this.webSocketOptions = options;
+		return useWebSocket(true);
+	}
+	/**
+	 * @return The options for the WebSocket mode, or null for the defaults
+	 * @see #useWebSocket(WebSocketOptions)
+	 */
+	public WebSocketOptions getWebSocketOptions() {
+		return webSocketOptions;
+	}
 	
 	/**
 	 * @return If this uses a WebSocket
@@ -141,6 +189,54 @@ public class Client extends Connection {
 		return this.ssl != null;
 	}
 	
+	/**
+	 * Ask the server to switch to compact frames, which use varints in the header instead of 16 fixed bytes <br>
+	 * The server must also allow it, otherwise the normal frames keep being used <br>
+	 * This applies the next time the client is started
+	 * @param compactFrames If compact frames should be requested
+	 * @return this
+	 * @see Server#setCompactFrames(boolean)
+	 * @see #isCompactFrames()
+	 */
+	public Client setCompactFrames(boolean compactFrames) {
+		this.offerCompactFrames = compactFrames;
+		return this;
+	}
+	
+	/**
+	 * Compress packets larger than the threshold, if the server uses the same compression <br>
+	 * Compression requires compact frames, and the compressor is reused for every packet <br>
+	 * This applies the next time the client is started <br>
+	 * Unless a frame size limit is set, a received packet may only decompress to 1032 times its compressed size, which is deflate's highest ratio
+	 * @param compression The compression, or null to disable compression
+	 * @param threshold The smallest body, in bytes, that is compressed
+	 * @return this
+	 * @see #setCompactFrames(boolean)
+	 * @see Server#setCompression(PacketCompression, int)
+	 * @see #isCompressing()
+	 */
+	public Client setCompression(PacketCompression compression, int threshold) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("The threshold cannot be negative!");
+		this.compression = compression;
+		this.compressionThreshold = threshold;
+		return this;
+	}
+	/**
+	 * @return The compression, or null if compression is disabled
+	 * @see #setCompression(PacketCompression, int)
+	 */
+	public PacketCompression getCompression() {
+		return compression;
+	}
+	/**
+	 * @return The smallest body, in bytes, that is compressed
+	 * @see #setCompression(PacketCompression, int)
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
 	/**
 	 * The listener is called when a {@link Packet} is received <br>
 	 * Calling this twice will cause the listener to be called twice
@@ -164,6 +260,30 @@ public class Client extends Connection {
 		return packetListeners.remove(listener);
 	}
 	
+	/**
+	 * The listener is called when a stream is received <br>
+	 * Calling this twice will cause the listener to be called twice
+	 * @param listener The listener to add
+	 * @return this
+	 * @see #removeStreamListener(StreamListener)
+	 * @see Connection#sendStream(Packet)
+	 */
+	public Client addStreamListener(StreamListener listener) {
+		streamListeners.add(listener);
+		return this;
+	}
+	
+	/**
+	 * The listener will stop being called <br>
+	 * If {@link #addStreamListener(StreamListener)} was called twice, it will still be called once
+	 * @param listener The listener to remove
+	 * @return If the listener was registered
+	 * @see #addStreamListener(StreamListener)
+	 */
+	public boolean removeStreamListener(StreamListener listener) {
+		return streamListeners.remove(listener);
+	}
+	
 	/**
 	 * Connect the client <br>
 	 * @return this
@@ -177,10 +297,16 @@ public class Client extends Connection {
 		String ip = (this.ip == null ? "localhost" : this.ip);
 		try {
 			if (useWebSocket)
-				start(new ClientWebSocketAccess(this, ip, port, connectTimeout, ssl));
+				start(new ClientWebSocketAccess(this, ip, port, connectTimeout, ssl, webSocketOptions, transportOptions));
 			else {
 				Socket socket = new Socket();
-				socket.connect(new InetSocketAddress(ip, port), connectTimeout);
+				try {
+					transportOptions.configure(socket);
+					socket.connect(new InetSocketAddress(ip, port), connectTimeout);
+				} catch (IOException | RuntimeException e) {
+					socket.close();
+					throw e;
+				}
 				start(new RawSocketAccess(socket));
 			}
 			return this;
@@ -1,26 +1,55 @@
 package com.luneruniverse.simplepacketlibrary;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
-import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
+import com.luneruniverse.simplepacketlibrary.accessors.InboundLimitException;
 import com.luneruniverse.simplepacketlibrary.accessors.PacketData;
+import com.luneruniverse.simplepacketlibrary.accessors.PacketReceiver;
 import com.luneruniverse.simplepacketlibrary.accessors.SocketAccess;
 import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
 import com.luneruniverse.simplepacketlibrary.listeners.PacketListener;
+import com.luneruniverse.simplepacketlibrary.listeners.StreamListener;
 import com.luneruniverse.simplepacketlibrary.listeners.WaitState;
+import com.luneruniverse.simplepacketlibrary.listeners.WritabilityListener;
 import com.luneruniverse.simplepacketlibrary.packets.Packet;
+import com.luneruniverse.simplepacketlibrary.packets.PacketContext;
 
 /**
  * Handles sending and receiving packets
@@ -28,134 +57,1101 @@ import com.luneruniverse.simplepacketlibrary.packets.Packet;
  */
 public abstract class Connection extends PacketRegistry implements ErrorHandler<Connection> {
 	
+	/**
+	 * The executor used for listeners unless another one is specified <br>
+	 * Reuses idle threads, which are discarded after a second of inactivity
+	 */
+	static final Executor DEFAULT_LISTENER_EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS,
+			new SynchronousQueue<>(), runnable -> new Thread(runnable, "Packet Listener"));
+	
+	/**
+	 * The version of the compact frames, which is sent in the HELLO
+	 */
+	private static final int COMPACT_FRAME_VERSION = 2;
+	/**
+	 * How long the server waits for a client's HELLO, in milliseconds, before it stops negotiating and keeps the fixed frames <br>
+	 * A client that offers compact frames sends its HELLO first, so only clients that don't, or that never send anything, wait this long
+	 */
+	private static final int NEGOTIATION_TIMEOUT = 1000;
+	/**
+	 * Without a frame size limit, a compressed packet may only claim to be this many times larger than its compressed bytes,
+	 * which is the most that deflate can achieve, so a tiny packet can't make the connection allocate a huge array
+	 */
+	private static final int MAX_DECOMPRESSION_RATIO = 1032;
+	
+	/**
+	 * The number of lanes that the keys are spread over, in {@link DispatchMode#KEYED}
+	 */
+	private static final int KEYED_LANES = 32; // Must be a power of two
+	/**
+	 * Passed to the listeners in the modes that never wait for them
+	 */
+	private static final WaitState NOT_WAITING = new WaitState();
+	static {
+		NOT_WAITING.dontWait();
+	}
+	
+	/**
+	 * Either a {@link PacketListener} or a {@link CompletableFuture} waiting for a response
+	 */
+	private static class ResponseListener extends ResponseTable.Entry {
+		private final long expiration;
+		private final PacketListener listener;
+		private final CompletableFuture<Packet> future;
+		private volatile TimingWheel.Timeout timeout;
+		private ResponseListener(int id, long expiration, PacketListener listener, CompletableFuture<Packet> future) {
+			super(id);
+			this.expiration = expiration;
+			this.listener = listener;
+			this.future = future;
+		}
+		private boolean isExpired(long time) {
+			return expiration != -1 && expiration < time;
+		}
+	}
+	
 	protected final Queue<PacketListener> packetListeners;
+	protected final Queue<StreamListener> streamListeners;
+	private volatile Executor listenerExecutor;
+	private final TimingWheel timingWheel;
 	private volatile int timeout;
-	private final Map<Integer, Map.Entry<Long, PacketListener>> responseListeners; // Waiting for a response for sent packets
-	private volatile int lastPacketId;
-	private final Map<Packet, Integer> responseIds; // Received a packet that may want a response
+	private final ResponseTable<ResponseListener> responseListeners; // Waiting for a response for sent packets
+	private volatile int maxInFlight; // -1 if there is no limit
+	private final AtomicInteger lastPacketId;
+	private final OutboundQueue outboundQueue;
+	private volatile boolean queuedWrites;
+	private volatile int aggregationWindow; // In microseconds, or 0 if packets aren't held back
+	private volatile int aggregationBytes;
+	boolean offerCompactFrames; // Set by the client, which sends a HELLO on start
+	boolean acceptCompactFrames; // Set by the server, which answers a HELLO with a SWITCH
+	private volatile boolean compactFrames; // If the sent frames use the compact header
+	private volatile boolean negotiatingFrames; // If compactFrames may still change, so sending must hold the read lock
+	private final ReadWriteLock frameFormatLock;
+	PacketCompression compression; // Set before starting, and only used if the other side has the same compression
+	int compressionThreshold;
+	private volatile PacketCompression.Codec codec; // Set once both sides agree to compress
+	private byte[] decompressed; // Reused for small packets, since packets are read one at a time
+	private final Map<Integer, StreamOutput> sentStreams; // Waiting for acknowledgements
+	private final Map<Integer, StreamInput> receivedStreams; // Waiting for chunks
 	protected SocketAccess socket;
-	private Thread thread;
+	private volatile Thread thread;
+	private volatile boolean alive;
+	private final AtomicBoolean closed;
+	private volatile DispatchMode dispatchMode;
+	private volatile Function<? super Packet, ?> dispatchKey; // Only used by DispatchMode.KEYED
+	private final DispatchLane serialLane; // Used when the socket reads on its own threads
+	private volatile DispatchLane[] keyedLanes; // Created on the first keyed packet
+	private final AtomicLong receivedBytes; // The payload bytes waiting for the listener executor, or to be read from streams
+	private final AtomicInteger activeStreams; // Received streams whose listeners haven't returned
+	private volatile int maxReceivedStreams; // -1 if there is no limit
+	private volatile int maxFrameSize; // -1 if there is no limit
+	private volatile long maxQueuedInboundBytes; // -1 if there is no limit
+	private final Queue<WritabilityListener> writabilityListeners;
+	private volatile long lowWatermark;
+	private volatile long highWatermark; // -1 if the connection is always writable
+	private volatile boolean unwritable;
+	private final Object writabilityLock; // Guards the changes in writability, and is notified when the connection becomes writable
+	private volatile int sendTimeout;
+	private final Map<Object, PacketBuffer> conflated; // The newest broadcast for each key, held back until the connection catches up
+	private volatile boolean hasConflated;
+	private long conflationLimit; // The pending bytes that the connection must drop to before the conflated broadcasts are sent
+	
+	/**
+	 * A reusable stream over a packet's payload
+	 */
+	private static class PacketInput extends ByteArrayInputStream {
+		private PacketInput() {
+			super(new byte[0]);
+		}
+		private void set(byte[] buf, int offset, int length) {
+			this.buf = buf;
+			this.pos = offset;
+			this.count = offset + length;
+			this.mark = offset;
+		}
+		/**
+		 * @return The length of the payload, after decompressing it
+		 */
+		private int length() {
+			return count - mark;
+		}
+	}
+	
+	private static class ReceivedPacket {
+		private final Collection<PacketListener> listeners;
+		private final Packet packet;
+		private final int size;
+		private ReceivedPacket(Collection<PacketListener> listeners, Packet packet, int size) {
+			this.listeners = listeners;
+			this.packet = packet;
+			this.size = size;
+		}
+	}
 	
-	Connection(Queue<PacketListener> packetListeners) {
+	Connection(Queue<PacketListener> packetListeners, Queue<StreamListener> streamListeners, TimingWheel timingWheel) {
 		this.packetListeners = packetListeners;
+		this.streamListeners = streamListeners;
+		this.listenerExecutor = DEFAULT_LISTENER_EXECUTOR;
+		this.timingWheel = timingWheel;
 		this.timeout = 5000;
-		this.responseListeners = new ConcurrentHashMap<>();
-		this.lastPacketId = -1;
-		this.responseIds = Collections.synchronizedMap(new WeakHashMap<>());
+		this.responseListeners = new ResponseTable<>();
+		this.maxInFlight = -1;
+		this.lastPacketId = new AtomicInteger(-1);
+		this.sentStreams = new ConcurrentHashMap<>();
+		this.receivedStreams = new ConcurrentHashMap<>();
+		this.closed = new AtomicBoolean(true);
+		this.dispatchMode = DispatchMode.SERIAL;
+		this.serialLane = new DispatchLane(true);
+		this.receivedBytes = new AtomicLong();
+		this.activeStreams = new AtomicInteger();
+		this.maxReceivedStreams = 16;
+		this.maxFrameSize = -1;
+		this.maxQueuedInboundBytes = -1;
+		this.writabilityListeners = new ConcurrentLinkedQueue<>();
+		this.lowWatermark = -1;
+		this.highWatermark = -1;
+		this.writabilityLock = new Object();
+		this.sendTimeout = -1;
+		this.outboundQueue = new OutboundQueue(this);
+		this.frameFormatLock = new ReentrantReadWriteLock();
+		this.conflated = new LinkedHashMap<>();
 	}
 	protected void start(SocketAccess socket) {
 		this.socket = socket;
+		this.closed.set(false);
+		this.alive = true;
+		this.compactFrames = false;
+		this.negotiatingFrames = offerCompactFrames || acceptCompactFrames;
+		this.codec = null;
+		this.receivedBytes.set(0);
+		socket.setInboundLimits(maxFrameSize, maxQueuedInboundBytes);
+		if (offerCompactFrames) {
+			try {
+				byte[] name = getCompressionName();
+				byte[] payload = new byte[1 + name.length];
+				payload[0] = COMPACT_FRAME_VERSION;
+				System.arraycopy(name, 0, payload, 1, name.length);
+				sendControlPacket(PacketData.HELLO, payload);
+			} catch (IOException e) {
+				onError(e, this, ErrorHandler.Error.SENDING_PACKETS);
+			}
+		}
+		if (acceptCompactFrames)
+			timingWheel.schedule(this::stopNegotiatingFrames, NEGOTIATION_TIMEOUT, this);
+		PacketInput input = new PacketInput();
+		DataInputStream in = new DataInputStream(input);
+		if (socket.startReading(new PacketReceiver() {
+			@Override
+			public void packetReceived(PacketData packetData) {
+				Packet packet = readPacket(packetData, input, in);
+				if (packet == null)
+					return;
+				Collection<PacketListener> listeners = getListeners(packetData, packet);
+				if (listeners == null)
+					return;
+				try {
+					dispatch(listeners, packet, input.length(), false);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt(); // Only waited on the connection's own thread
+				}
+			}
+			@Override
+			public void socketClosed(IOException cause) {
+				if (cause != null && !(cause instanceof EOFException))
+					onError(cause, Connection.this, getReadError(cause));
+				finishClosing();
+			}
+		})) {
+			thread = null;
+			return;
+		}
 		thread = new Thread(() -> {
 			try {
 				while (isAlive() && !Thread.interrupted()) {
 					PacketData packetData = socket.readPacket();
-					PacketConstructor<? extends Packet> packetType = getPacketType(packetData.packetType);
-					if (packetType == null) {
-						onError(new Exception("Unregistered packet type received!"), this, ErrorHandler.Error.UNREGISTERED_PACKET);
-						continue;
-					}
-					Packet packet;
-					try {
-						packet = packetType.get(new DataInputStream(new ByteArrayInputStream(packetData.data)));
-					} catch (Exception e) {
-						onError(new Exception("The supplier for a registered received packet threw an exception", e), this, ErrorHandler.Error.CONSTRUCTING_PACKET);
+					Packet packet = readPacket(packetData, input, in);
+					if (packet == null)
 						continue;
-					}
-					responseIds.put(packet, packetData.id);
-					if (packetData.responseId != -1) {
-						Map.Entry<Long, PacketListener> listener = responseListeners.get(packetData.responseId);
-						if (listener != null && listener.getKey() != -1 && listener.getKey() < System.currentTimeMillis())
-							responseListeners.remove(packetData.responseId);
-						else if (listener != null)
-							invokePacketListeners(Collections.singletonList(listener.getValue()), packet);
-					} else
-						invokePacketListeners(packetListeners, packet);
+					Collection<PacketListener> listeners = getListeners(packetData, packet);
+					if (listeners != null)
+						dispatch(listeners, packet, input.length(), true);
 				}
 			} catch (InterruptedException | EOFException e) {
 				// Connection closed
 			} catch (IOException e) {
 				if (Thread.interrupted())
 					return;
-				onError(e, this, ErrorHandler.Error.HANDLING_PACKETS);
+				onError(e, this, getReadError(e));
 				try {
 					close();
 				} catch (IOException | InterruptedException e1) {
 					onError(e1, this, ErrorHandler.Error.CLOSING_CONNECTION);
 				}
 			} finally {
-				onClose();
+				finishClosing();
 			}
 		}, "Connection");
 		thread.start();
 	}
+	private Packet readPacket(PacketData packetData, PacketInput input, DataInputStream in) {
+		if (packetData.packetType == PacketData.STREAM_OPEN) {
+			receiveStream(packetData, input, in);
+			return null;
+		}
+		if (packetData.packetType < 0) {
+			handleControlPacket(packetData);
+			return null;
+		}
+		if (acceptCompactFrames && negotiatingFrames)
+			negotiatingFrames = false; // The client would have sent a HELLO first
+		PacketConstructor<? extends Packet> packetType = getPacketType(packetData.packetType);
+		if (packetType == null) {
+			onError(new Exception("Unregistered packet type received!"), this, ErrorHandler.Error.UNREGISTERED_PACKET);
+			return null;
+		}
+		Packet packet;
+		try {
+			if ((packetData.flags & PacketData.FLAG_COMPRESSED) != 0)
+				decompress(packetData, input);
+			else
+				input.set(packetData.data, packetData.offset, packetData.length);
+		} catch (InboundLimitException e) {
+			closeForInboundLimit(e);
+			return null;
+		} catch (IOException e) {
+			onError(new Exception("Unable to decompress a received packet", e), this, ErrorHandler.Error.CONSTRUCTING_PACKET);
+			return null;
+		}
+		try {
+			packet = packetType.get(in);
+		} catch (Exception e) {
+			onError(new Exception("The supplier for a registered received packet threw an exception", e), this, ErrorHandler.Error.CONSTRUCTING_PACKET);
+			return null;
+		}
+		packet.setContext(new PacketContext(packetData.id, packetData.responseId, this, System.currentTimeMillis()));
+		return packet;
+	}
+	private void decompress(PacketData packetData, PacketInput input) throws IOException {
+		PacketCompression.Codec codec = this.codec;
+		if (codec == null)
+			throw new IOException("Received a compressed packet without agreeing to a compression!");
+		long length = 0;
+		int index = packetData.offset;
+		int end = packetData.offset + packetData.length;
+		for (int shift = 0; ; shift += 7) {
+			if (index >= end || shift >= 35)
+				throw new IOException("Received a compressed packet with an invalid length!");
+			int b = packetData.data[index++];
+			length |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		if (length > Integer.MAX_VALUE - 8)
+			throw new IOException("Received a compressed packet with an invalid length!");
+		int maxFrameSize = this.maxFrameSize;
+		if (maxFrameSize != -1 && length > maxFrameSize)
+			throw new InboundLimitException("Received a compressed packet that decompresses to " + length + " bytes, which is more than the maximum of " + maxFrameSize + "!");
+		if (maxFrameSize == -1 && length > 1024 + (long) (end - index) * MAX_DECOMPRESSION_RATIO)
+			throw new InboundLimitException("Received a compressed packet that claims to decompress to " + length + " bytes from only " + (end - index) + " bytes!");
+		byte[] dest = decompressed;
+		if (dest == null || dest.length < length) {
+			dest = new byte[(int) Math.max(length, 1024)];
+			if (length <= 64 * 1024)
+				decompressed = dest; // Large packets aren't kept, so an idle connection doesn't hold onto them
+		}
+		synchronized (codec) {
+			codec.decompress(packetData.data, index, end - index, dest, (int) length);
+		}
+		input.set(dest, 0, (int) length);
+	}
+	/**
+	 * Handle the packets that the library sends to itself, which have negative types <br>
+	 * Unknown control packets are ignored, so newer versions can add more
+	 */
+	private void handleControlPacket(PacketData packetData) {
+		switch (packetData.packetType) {
+			case PacketData.HELLO:
+				if (offerCompactFrames) {
+					negotiatingFrames = false; // The server's answer when it won't switch
+					break;
+				}
+				if (acceptCompactFrames && negotiatingFrames && packetData.length > 0 && packetData.data[packetData.offset] >= COMPACT_FRAME_VERSION)
+					switchToCompactFrames(isCompressionName(packetData, 1)); // The client's compression follows the version
+				else {
+					negotiatingFrames = false;
+					try {
+						sendControlPacket(PacketData.HELLO, new byte[] {1}); // Tell the client to keep sending fixed frames
+					} catch (IOException e) {
+						onError(e, this, ErrorHandler.Error.SENDING_PACKETS);
+					}
+				}
+				break;
+			case PacketData.SWITCH:
+				// The socket has already switched to reading compact frames, so the client does the same for the server
+				if (offerCompactFrames && negotiatingFrames)
+					switchToCompactFrames(isCompressionName(packetData, 0)); // The server only names the compression if it matched
+				break;
+			case PacketData.STREAM_CHUNK: {
+				StreamInput stream = receivedStreams.get(packetData.id);
+				if (stream == null)
+					break; // Cancelled
+				try {
+					stream.chunkReceived(packetData.data, packetData.offset, packetData.length);
+				} catch (InboundLimitException e) {
+					closeForInboundLimit(e);
+				}
+				break;
+			}
+			case PacketData.STREAM_END: {
+				StreamInput stream = receivedStreams.remove(packetData.id);
+				if (stream != null)
+					stream.finish();
+				break;
+			}
+			case PacketData.STREAM_ACK: {
+				StreamOutput stream = sentStreams.get(packetData.id);
+				if (stream == null)
+					break;
+				long bytes = 0;
+				int index = packetData.offset;
+				int end = packetData.offset + packetData.length;
+				for (int shift = 0; index < end && shift < 35; shift += 7) {
+					int b = packetData.data[index++];
+					bytes |= (long) (b & 0x7F) << shift;
+					if ((b & 0x80) == 0)
+						break;
+				}
+				stream.acknowledge(bytes);
+				break;
+			}
+			case PacketData.STREAM_CANCEL: {
+				StreamOutput stream = sentStreams.remove(packetData.id);
+				if (stream != null)
+					stream.cancel();
+				break;
+			}
+			case PacketData.STREAM_ABORT: {
+				StreamInput stream = receivedStreams.remove(packetData.id);
+				if (stream != null)
+					stream.fail(new IOException("The sender couldn't finish the stream!"));
+				break;
+			}
+		}
+	}
+	/**
+	 * Send a SWITCH, and use compact frames for everything sent after it <br>
+	 * Sending is blocked until the SWITCH has been sent, so no fixed frames can follow it
+	 * @param compress If both sides have the same compression, which is named in the SWITCH
+	 */
+	private void switchToCompactFrames(boolean compress) {
+		frameFormatLock.writeLock().lock();
+		try {
+			if (compress)
+				codec = compression.newCodec();
+			sendControlPacket(PacketData.SWITCH, compress ? getCompressionName() : new byte[0]);
+			compactFrames = true;
+		} catch (IOException e) {
+			onError(e, this, ErrorHandler.Error.SENDING_PACKETS);
+		} finally {
+			negotiatingFrames = false;
+			frameFormatLock.writeLock().unlock();
+		}
+	}
+	/**
+	 * Keep the fixed frames if the client hasn't sent anything yet <br>
+	 * A HELLO that arrives afterwards is answered as if compact frames weren't accepted
+	 */
+	private void stopNegotiatingFrames() {
+		if (!negotiatingFrames)
+			return;
+		frameFormatLock.writeLock().lock();
+		try {
+			negotiatingFrames = false;
+		} finally {
+			frameFormatLock.writeLock().unlock();
+		}
+	}
+	private void sendControlPacket(int packetType, byte[] payload) throws IOException {
+		sendControlPacket(packetType, -1, payload, payload.length);
+	}
 	/**
 	 * Internal use only <br>
-	 * Invoke the packet listeners with the specified packet
-	 * @param listeners The listeners to invoke
-	 * @param packet The packet
-	 * @throws InterruptedException If the thread was interrupted
+	 * Send a packet that the other side's library handles itself <br>
+	 * Control packets are never compressed
+	 * @param packetType The negative type
+	 * @param id The id in the header
+	 * @param payload The array containing the payload, which is copied
+	 * @param length The length of the payload
+	 * @throws IOException If there was an error sending the packet
 	 */
-	public void invokePacketListeners(Collection<PacketListener> listeners, Packet packet) throws InterruptedException {
-		Map<Thread, WaitState> threads = new HashMap<>();
+	void sendControlPacket(int packetType, int id, byte[] payload, int length) throws IOException {
+		PacketBuffer buf = PacketBuffer.acquire();
+		buf.write(payload, 0, length);
+		sendEncoded(buf, id, -1, packetType, null, null, false);
+	}
+	private byte[] getCompressionName() {
+		PacketCompression compression = this.compression;
+		return (compression == null ? new byte[0] : compression.getName().getBytes(StandardCharsets.UTF_8));
+	}
+	private boolean isCompressionName(PacketData packetData, int offset) {
+		byte[] name = getCompressionName();
+		if (name.length == 0 || packetData.length - offset != name.length)
+			return false;
+		for (int i = 0; i < name.length; i++) {
+			if (packetData.data[packetData.offset + offset + i] != name[i])
+				return false;
+		}
+		return true;
+	}
+	/**
+	 * Whether the frames sent by this connection use the compact header, which was negotiated when the connection started
+	 * @return If compact frames are being sent
+	 * @see Client#setCompactFrames(boolean)
+	 * @see Server#setCompactFrames(boolean)
+	 */
+	public boolean isCompactFrames() {
+		return compactFrames;
+	}
+	/**
+	 * @return If the frame format may still change
+	 */
+	boolean isNegotiatingFrames() {
+		return negotiatingFrames;
+	}
+	/**
+	 * Whether packets larger than the compression threshold are compressed, which requires compact frames
+	 * and the same compression on both sides
+	 * @return If packets are being compressed
+	 * @see Client#setCompression(PacketCompression, int)
+	 * @see Server#setCompression(PacketCompression, int)
+	 */
+	public boolean isCompressing() {
+		return codec != null;
+	}
+	
+	/**
+	 * Find the listeners for a received packet <br>
+	 * Response futures are completed directly
+	 * @return The listeners, or null if there aren't any to invoke
+	 */
+	private Collection<PacketListener> getListeners(PacketData packetData, Packet packet) {
+		if (packetData.responseId == -1)
+			return packetListeners;
+		ResponseListener listener = responseListeners.get(packetData.responseId);
+		if (listener == null)
+			return null;
+		if (listener.isExpired(System.currentTimeMillis())) {
+			if (unregisterResponseListener(listener))
+				expireResponseListener(listener);
+			return null;
+		}
+		if (listener.future != null) {
+			if (unregisterResponseListener(listener))
+				listener.future.complete(packet);
+			return null;
+		}
+		return Collections.singletonList(listener.listener);
+	}
+	/**
+	 * Hand a received packet to its listeners, according to the {@link DispatchMode}
+	 * @param size The size of the payload, which counts towards the queued inbound bytes until the listeners start
+	 * @param ownThread If this is the connection's own reading thread, which waits for the listeners in {@link DispatchMode#SERIAL}
+	 * @throws InterruptedException If the reading thread was interrupted while waiting for the listeners
+	 */
+	private void dispatch(Collection<PacketListener> listeners, Packet packet, int size, boolean ownThread) throws InterruptedException {
+		DispatchLane lane;
+		switch (dispatchMode) {
+			case INLINE:
+				invokeInline(listeners, packet);
+				return;
+			case SERIAL:
+				if (ownThread) {
+					invokePacketListeners(listeners, packet);
+					return;
+				}
+				lane = serialLane;
+				break;
+			case KEYED:
+				lane = getKeyedLane(packet);
+				break;
+			default:
+				lane = null;
+				break;
+		}
+		long queued = receivedBytes.addAndGet(size);
+		long maxQueuedInboundBytes = this.maxQueuedInboundBytes;
+		if (maxQueuedInboundBytes != -1 && queued > maxQueuedInboundBytes) {
+			receivedBytes.addAndGet(-size);
+			closeForInboundLimit(new InboundLimitException("More than " + maxQueuedInboundBytes + " received bytes are waiting for the packet listeners!"));
+			return;
+		}
+		if (lane != null) {
+			lane.add(new ReceivedPacket(listeners, packet, size));
+			return;
+		}
+		try {
+			listenerExecutor.execute(() -> {
+				receivedBytes.addAndGet(-size);
+				invokeInline(listeners, packet);
+			});
+		} catch (RejectedExecutionException e) {
+			receivedBytes.addAndGet(-size);
+			onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+		}
+	}
+	/**
+	 * Invoke the listeners one after the other on this thread
+	 */
+	private void invokeInline(Collection<PacketListener> listeners, Packet packet) {
 		for (PacketListener listener : listeners) {
-			WaitState wait = new WaitState();
-			Thread thread = new Thread(() -> {
+			try {
+				listener.onPacket(packet, this, NOT_WAITING);
+			} catch (Exception e) {
+				onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+			}
+		}
+	}
+	private DispatchLane getKeyedLane(Packet packet) {
+		DispatchLane[] lanes = keyedLanes;
+		if (lanes == null) {
+			synchronized (serialLane) {
+				lanes = keyedLanes;
+				if (lanes == null) {
+					lanes = new DispatchLane[KEYED_LANES];
+					for (int i = 0; i < lanes.length; i++)
+						lanes[i] = new DispatchLane(false);
+					keyedLanes = lanes;
+				}
+			}
+		}
+		Function<? super Packet, ?> dispatchKey = this.dispatchKey; // Null if the mode is changing
+		Object key;
+		try {
+			key = (dispatchKey == null ? null : dispatchKey.apply(packet));
+		} catch (RuntimeException e) {
+			onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+			key = null;
+		}
+		int hash = Objects.hashCode(key);
+		return lanes[(hash ^ (hash >>> 16)) & (KEYED_LANES - 1)];
+	}
+	/**
+	 * Received packets that are handled one at a time, in order, on the listener executor <br>
+	 * Any thread can add packets, and at most one task drains the lane at a time, so a lane doesn't hold onto a thread while it is empty
+	 */
+	private class DispatchLane {
+		private final Queue<ReceivedPacket> packets;
+		private final AtomicInteger wip; // The number of times the lane has been signalled
+		private final boolean wait; // If each packet waits for its listeners, which run at the same time
+		private DispatchLane(boolean wait) {
+			this.packets = new ConcurrentLinkedQueue<>();
+			this.wip = new AtomicInteger();
+			this.wait = wait;
+		}
+		private void add(ReceivedPacket received) {
+			packets.add(received);
+			if (wip.getAndIncrement() == 0) {
 				try {
-					listener.onPacket(packet, this, wait);
+					listenerExecutor.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					clear();
+					wip.set(0);
+					onError(e, Connection.this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+				}
+			}
+		}
+		private void drain() {
+			int missed = 1;
+			do {
+				ReceivedPacket received;
+				while ((received = packets.poll()) != null) {
+					receivedBytes.addAndGet(-received.size);
+					if (!wait) {
+						invokeInline(received.listeners, received.packet);
+						continue;
+					}
+					try {
+						invokePacketListeners(received.listeners, received.packet);
+					} catch (InterruptedException e) {
+						clear();
+						wip.set(0);
+						return;
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+		private void clear() {
+			ReceivedPacket received;
+			while ((received = packets.poll()) != null)
+				receivedBytes.addAndGet(-received.size);
+		}
+	}
+	/**
+	 * Construct a stream's header packet, and pass the stream to the stream listeners on their own thread,
+	 * since they block the thread while they read the stream
+	 */
+	private void receiveStream(PacketData packetData, PacketInput input, DataInputStream in) {
+		int packetType = 0;
+		int index = packetData.offset;
+		int end = packetData.offset + packetData.length;
+		for (int shift = 0; ; shift += 7) {
+			if (index >= end || shift >= 35) {
+				onError(new Exception("Received a stream with an invalid header!"), this, ErrorHandler.Error.CONSTRUCTING_PACKET);
+				cancelStream(packetData.id);
+				return;
+			}
+			int b = packetData.data[index++];
+			packetType |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		int maxReceivedStreams = this.maxReceivedStreams;
+		if (maxReceivedStreams != -1 && activeStreams.get() >= maxReceivedStreams) {
+			closeForInboundLimit(new InboundLimitException("More than " + maxReceivedStreams + " streams were received at once!"));
+			return;
+		}
+		Packet header = (packetType < 0 ? null :
+			readPacket(new PacketData(packetData.id, -1, packetType, 0, packetData.data, index, end - index), input, in));
+		if (header == null || streamListeners.isEmpty()) {
+			cancelStream(packetData.id);
+			return;
+		}
+		StreamInput stream = new StreamInput(this, packetData.id);
+		receivedStreams.put(packetData.id, stream);
+		activeStreams.incrementAndGet();
+		try {
+			DEFAULT_LISTENER_EXECUTOR.execute(() -> invokeStreamListeners(header, stream));
+		} catch (RejectedExecutionException e) {
+			activeStreams.decrementAndGet();
+			onError(e, this, ErrorHandler.Error.INSIDE_STREAM_LISTENER);
+			stream.close();
+		}
+	}
+	private void invokeStreamListeners(Packet header, StreamInput stream) {
+		try {
+			for (StreamListener listener : streamListeners) {
+				try {
+					listener.onStream(header, stream, this);
 				} catch (Exception e) {
-					onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+					onError(e, this, ErrorHandler.Error.INSIDE_STREAM_LISTENER);
 				}
-			}, "Packet Listener");
-			thread.start();
-			threads.put(thread, wait);
+			}
+		} finally {
+			stream.close();
+			activeStreams.decrementAndGet();
 		}
-		while (!threads.isEmpty()) {
-			if (Thread.interrupted())
-				throw new InterruptedException();
-			threads.entrySet().removeIf(entry -> !(entry.getKey().isAlive() && entry.getValue().isWaiting()));
-			Thread.sleep(1);
+	}
+	/**
+	 * Internal use only <br>
+	 * Count a received chunk of a stream toward the limit of queued inbound bytes, until it is read
+	 * @param bytes The length of the chunk
+	 * @throws InboundLimitException If too many received bytes are waiting
+	 * @see #setInboundLimits(int, long)
+	 */
+	void streamChunkQueued(int bytes) throws InboundLimitException {
+		long queued = receivedBytes.addAndGet(bytes);
+		long maxQueuedInboundBytes = this.maxQueuedInboundBytes;
+		if (maxQueuedInboundBytes != -1 && queued > maxQueuedInboundBytes) {
+			receivedBytes.addAndGet(-bytes);
+			throw new InboundLimitException("More than " + maxQueuedInboundBytes + " received bytes are waiting to be read!");
 		}
 	}
+	/**
+	 * Internal use only <br>
+	 * Stop counting the chunks of a stream that were discarded without being read
+	 * @param bytes The number of bytes
+	 */
+	void streamChunksDiscarded(long bytes) {
+		receivedBytes.addAndGet(-bytes);
+	}
+	/**
+	 * Internal use only <br>
+	 * Let the sender of a stream send more of it
+	 * @param id The id of the stream
+	 * @param bytes The number of bytes that were read
+	 * @throws IOException If there was an error sending the acknowledgement
+	 */
+	void acknowledgeStream(int id, int bytes) throws IOException {
+		receivedBytes.addAndGet(-bytes);
+		byte[] payload = new byte[5];
+		int length = 0;
+		while ((bytes & ~0x7F) != 0) {
+			payload[length++] = (byte) ((bytes & 0x7F) | 0x80);
+			bytes >>>= 7;
+		}
+		payload[length++] = (byte) bytes;
+		sendControlPacket(PacketData.STREAM_ACK, id, payload, length);
+	}
+	/**
+	 * Internal use only <br>
+	 * Stop receiving a stream before the sender ended it
+	 * @param stream The stream
+	 */
+	void cancelReceivedStream(StreamInput stream) {
+		if (receivedStreams.remove(stream.getId(), stream))
+			cancelStream(stream.getId());
+	}
+	private void cancelStream(int id) {
+		try {
+			sendControlPacket(PacketData.STREAM_CANCEL, id, new byte[0], 0);
+		} catch (IOException e) {
+			if (!closed.get())
+				onError(e, this, ErrorHandler.Error.SENDING_PACKETS);
+		}
+	}
+	/**
+	 * Internal use only <br>
+	 * Tell the receiver of a stream that it won't be finished
+	 * @param id The id of the stream
+	 */
+	void abortSentStream(int id) {
+		try {
+			sendControlPacket(PacketData.STREAM_ABORT, id, new byte[0], 0);
+		} catch (IOException e) {
+			if (!closed.get())
+				onError(e, this, ErrorHandler.Error.SENDING_PACKETS);
+		}
+	}
+	/**
+	 * Internal use only <br>
+	 * Send a chunk of a stream straight from a file <br>
+	 * When the packets are written immediately, the socket can transfer the chunk without copying it through the JVM,
+	 * otherwise the chunk is read into a buffer and queued like any other packet
+	 * @param id The id of the stream
+	 * @param file The file
+	 * @param position Where the chunk starts in the file
+	 * @param length The length of the chunk
+	 * @throws IOException If there was an error reading the file or sending the chunk
+	 * @see SocketAccess#sendFileRegion(ByteBuffer, FileChannel, long, int)
+	 */
+	void sendFileChunk(int id, FileChannel file, long position, int length) throws IOException {
+		PacketBuffer buf = PacketBuffer.acquire();
+		if (queuedWrites || aggregationWindow > 0 || outboundQueue.isBusy() || negotiatingFrames) {
+			try {
+				buf.write(file, position, length);
+			} catch (IOException e) {
+				buf.release();
+				throw e;
+			}
+			sendEncoded(buf, id, -1, PacketData.STREAM_CHUNK, null, null, false);
+			return;
+		}
+		try {
+			if (socket == null || socket.isClosed())
+				throw new IOException("The connection isn't alive!");
+			buf.writeHeader(id, -1, PacketData.STREAM_CHUNK, compactFrames, length);
+			socket.sendFileRegion(buf.toByteBuffer(), file, position, length);
+		} finally {
+			buf.release();
+		}
+		checkWritability();
+	}
+	/**
+	 * Internal use only <br>
+	 * Forget a stream that has been sent
+	 * @param stream The stream
+	 */
+	void removeSentStream(StreamOutput stream) {
+		sentStreams.remove(stream.getId(), stream);
+	}
+	private ErrorHandler.Error getReadError(IOException e) {
+		return e instanceof InboundLimitException ? ErrorHandler.Error.EXCEEDED_INBOUND_LIMIT : ErrorHandler.Error.HANDLING_PACKETS;
+	}
+	private void closeForInboundLimit(InboundLimitException e) {
+		onError(e, this, ErrorHandler.Error.EXCEEDED_INBOUND_LIMIT);
+		try {
+			close();
+		} catch (IOException | InterruptedException e1) {
+			onError(e1, this, ErrorHandler.Error.CLOSING_CONNECTION);
+		}
+	}
+	private void finishClosing() {
+		if (!closed.compareAndSet(false, true))
+			return;
+		alive = false;
+		serialLane.clear();
+		DispatchLane[] keyedLanes = this.keyedLanes;
+		if (keyedLanes != null) {
+			for (DispatchLane lane : keyedLanes)
+				lane.clear();
+		}
+		receivedBytes.set(0);
+		clearResponseListeners();
+		for (StreamOutput stream : sentStreams.values())
+			stream.connectionClosed();
+		sentStreams.clear();
+		for (StreamInput stream : receivedStreams.values())
+			stream.fail(new EOFException("The connection closed before the stream ended!"));
+		receivedStreams.clear();
+		synchronized (writabilityLock) {
+			writabilityLock.notifyAll(); // Senders waiting for the connection to become writable
+		}
+		PacketCompression.Codec codec = this.codec;
+		if (codec != null) {
+			synchronized (codec) {
+				codec.close();
+			}
+		}
+		decompressed = null;
+		clearConflatedPackets();
+		onClose();
+	}
+	/**
+	 * Internal use only <br>
+	 * Invoke the packet listeners with the specified packet
+	 * @param listeners The listeners to invoke
+	 * @param packet The packet
+	 * @throws InterruptedException If the thread was interrupted
+	 */
+	public void invokePacketListeners(Collection<PacketListener> listeners, Packet packet) throws InterruptedException {
+		PacketListener[] toInvoke = listeners.toArray(new PacketListener[0]);
+		CountDownLatch latch = new CountDownLatch(toInvoke.length);
+		for (PacketListener listener : toInvoke) {
+			WaitState wait = new WaitState(latch);
+			try {
+				listenerExecutor.execute(() -> {
+					try {
+						listener.onPacket(packet, this, wait);
+					} catch (Exception e) {
+						onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+					} finally {
+						wait.dontWait();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+				wait.dontWait();
+			}
+		}
+		latch.await();
+	}
+	
+	/**
+	 * Set the executor that runs the {@link PacketListener}s <br>
+	 * Each listener is submitted as its own task, and the connection waits on the tasks as described by {@link WaitState} <br>
+	 * For example, use a bounded pool from {@link java.util.concurrent.Executors#newFixedThreadPool(int)},
+	 * a virtual thread executor on Java 21+, or <code>Runnable::run</code> to run the listeners on the connection thread <br>
+	 * Listeners that wait for a response must not run on the connection thread <br>
+	 * Defaults to a shared pool that reuses idle threads
+	 * @param listenerExecutor The executor
+	 * @see #getListenerExecutor()
+	 */
+	public void setListenerExecutor(Executor listenerExecutor) {
+		if (listenerExecutor == null)
+			throw new IllegalArgumentException("The executor cannot be null!");
+		this.listenerExecutor = listenerExecutor;
+	}
+	/**
+	 * Get the executor that runs the {@link PacketListener}s
+	 * @return The executor
+	 * @see #setListenerExecutor(Executor)
+	 */
+	public Executor getListenerExecutor() {
+		return listenerExecutor;
+	}
+	/**
+	 * Set how received packets are handed to the packet listeners
+	 * @param dispatchMode The mode, which can't be {@link DispatchMode#KEYED}, since that requires a key
+	 * @see #setDispatchMode(DispatchMode, Function)
+	 * @see #getDispatchMode()
+	 */
+	public void setDispatchMode(DispatchMode dispatchMode) {
+		setDispatchMode(dispatchMode, null);
+	}
+	/**
+	 * Set how received packets are handed to the packet listeners <br>
+	 * Packets that are already waiting for the listeners are still handled in the previous mode
+	 * @param dispatchMode The mode
+	 * @param key Gets the key of a packet, such as the id of the entity that it is about, for {@link DispatchMode#KEYED},
+	 * or null for the other modes
+	 * @see #getDispatchMode()
+	 * @see #getDispatchKey()
+	 */
+	public void setDispatchMode(DispatchMode dispatchMode, Function<? super Packet, ?> key) {
+		if (dispatchMode == null)
+			throw new IllegalArgumentException("The dispatch mode cannot be null!");
+		if (dispatchMode == DispatchMode.KEYED && key == null)
+			throw new IllegalArgumentException("Keyed dispatch requires a key!");
+		this.dispatchKey = key;
+		this.dispatchMode = dispatchMode;
+	}
+	/**
+	 * @return How received packets are handed to the packet listeners
+	 * @see #setDispatchMode(DispatchMode, Function)
+	 */
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+	/**
+	 * @return What gets the key of a packet for {@link DispatchMode#KEYED}, or null
+	 * @see #setDispatchMode(DispatchMode, Function)
+	 */
+	public Function<? super Packet, ?> getDispatchKey() {
+		return dispatchKey;
+	}
 	
-	private int sendPacket(Packet packet, int responseId, PacketListener response) throws IOException {
+	private int sendPacket(Packet packet, int responseId, PacketListener response, CompletableFuture<Packet> future) throws IOException {
+		if (socket == null || socket.isClosed())
+			throw new IOException("The connection isn't alive!");
+		awaitWritable();
+		return encodePacket(packet, responseId, response, future, false);
+	}
+	/**
+	 * Internal use only <br>
+	 * Send a {@link Packet} without waiting for the connection to become writable,
+	 * for the broadcasts that can't use the bytes encoded for the other connections <br>
+	 * The packet is always queued, so a socket that blocks when sending doesn't hold up the broadcast
+	 * @param packet The packet to send
+	 * @param response The listener to call on a response, or null
+	 * @throws IOException If there was an error sending the packet
+	 * @see #setSendTimeout(int)
+	 */
+	void sendBroadcastPacket(Packet packet, PacketListener response) throws IOException {
 		if (socket == null || socket.isClosed())
 			throw new IOException("The connection isn't alive!");
+		encodePacket(packet, -1, response, null, true);
+	}
+	private int encodePacket(Packet packet, int responseId, PacketListener response, CompletableFuture<Packet> future, boolean queue) throws IOException {
+		int packetType = getPacketId(packet);
+		PacketBuffer buf = PacketBuffer.acquire();
+		try {
+			packet.write(buf.getOutput());
+		} catch (IOException | RuntimeException e) {
+			buf.release();
+			throw e;
+		}
 		
-		cleanResponseListeners();
+		int id = lastPacketId.incrementAndGet() & Integer.MAX_VALUE; // Negative ids are for broadcasts
+		sendEncoded(buf, id, responseId, packetType, response, future, queue);
 		
-		int id = ++lastPacketId;
+		return id;
+	}
+	/**
+	 * Fill in the header and send the packet <br>
+	 * The buffer is released once it has been written or discarded
+	 * @param buf The packet, with only the body written
+	 * @param id The id of the packet
+	 * @param responseId The packet being responded to, or -1
+	 * @param packetType The type of the packet, which is negative for control packets
+	 * @param response The listener to call on a response, or null
+	 * @param future The future to complete on a response, or null
+	 * @param queue If the packet must be queued, even if {@link #isQueuedWrites()} is false
+	 * @throws IOException If there was an error sending the packet
+	 */
+	private void sendEncoded(PacketBuffer buf, int id, int responseId, int packetType, PacketListener response, CompletableFuture<Packet> future, boolean queue) throws IOException {
+		if (socket == null || socket.isClosed()) {
+			buf.release();
+			throw new IOException("The connection isn't alive!");
+		}
 		
-		if (response != null) {
-			long packetTimeout = timeout == -1 ? -1 : System.currentTimeMillis() + timeout;
-			responseListeners.put(id, new Map.Entry<Long, PacketListener>() {
-				@Override
-				public Long getKey() {
-					return packetTimeout;
-				}
-				@Override
-				public PacketListener getValue() {
-					return response;
-				}
-				@Override
-				public PacketListener setValue(PacketListener value) {
-					throw new UnsupportedOperationException("Map entry is immutable");
+		if (!registerResponseListener(id, response, future, maxInFlight)) {
+			buf.release();
+			throw new IOException("Too many packets are waiting for a response!");
+		}
+		Lock lock = (negotiatingFrames ? frameFormatLock.readLock() : null);
+		if (lock != null)
+			lock.lock();
+		try {
+			boolean compact = compactFrames;
+			if (compact && packetType >= 0)
+				buf = compress(buf);
+			buf.writeHeader(id, responseId, packetType, compact);
+			if (queue || queuedWrites || aggregationWindow > 0 || outboundQueue.isBusy())
+				outboundQueue.add(buf);
+			else {
+				try {
+					socket.sendPacket(buf.toByteBuffer());
+				} finally {
+					buf.release();
 				}
-			});
+			}
+		} catch (IOException e) {
+			ResponseListener listener = (response == null && future == null ? null : responseListeners.get(id));
+			if (listener != null && unregisterResponseListener(listener) && listener.future != null)
+				listener.future.completeExceptionally(e);
+			throw e;
+		} finally {
+			if (lock != null)
+				lock.unlock();
 		}
-		
-		ByteArrayOutputStream buf = new ByteArrayOutputStream();
-		DataOutputStream out = new DataOutputStream(buf);
-		out.writeInt(id);
-		out.writeInt(responseId);
-		out.writeInt(getPacketId(packet));
-		ByteArrayOutputStream data = new ByteArrayOutputStream();
-		packet.write(new DataOutputStream(data));
-		out.writeInt(data.size());
-		out.write(data.toByteArray());
-		out.flush();
-		socket.sendPacket(buf.toByteArray());
-		
-		return id;
+		checkWritability();
+	}
+	/**
+	 * Compress the body if it is larger than the threshold, and both sides agreed to a compression
+	 * @param buf The packet, which is released if it is replaced
+	 * @return The packet to send
+	 * @throws IOException If there was an error compressing the packet
+	 */
+	private PacketBuffer compress(PacketBuffer buf) throws IOException {
+		if (buf.bodySize() < compressionThreshold)
+			return buf;
+		PacketBuffer compressed;
+		try {
+			compressed = compressBody(buf);
+		} catch (IOException e) {
+			buf.release();
+			throw e;
+		}
+		if (compressed == null)
+			return buf;
+		buf.release();
+		return compressed;
+	}
+	/**
+	 * Internal use only <br>
+	 * Compress a packet's body with this connection's codec <br>
+	 * Any connection with the same compression can decompress the result
+	 * @param buf The packet, which isn't released
+	 * @return The compressed copy, or null if it isn't smaller or this connection isn't compressing
+	 * @throws IOException If there was an error compressing the packet
+	 * @see #isCompressing()
+	 */
+	PacketBuffer compressBody(PacketBuffer buf) throws IOException {
+		PacketCompression.Codec codec = this.codec;
+		if (codec == null)
+			return null;
+		try {
+			return buf.compressBody(codec);
+		} catch (RuntimeException e) {
+			if (closed.get())
+				throw new IOException("The connection isn't alive!", e); // The codec was closed
+			throw e;
+		}
+	}
+	/**
+	 * Internal use only <br>
+	 * Queue a packet that has already been encoded, so the sender never blocks, even if {@link #isQueuedWrites()} is false <br>
+	 * The header must match {@link #isCompactFrames()}, so this can't be used while {@link #isNegotiatingFrames()}
+	 * @param buf The packet, including the header, which is released once it has been written or discarded
+	 * @param id The id in the header
+	 * @param response The listener to call on a response, or null
+	 */
+	void queueEncoded(PacketBuffer buf, int id, PacketListener response) {
+		registerResponseListener(id, response, null, -1); // The broadcast has already been sent to the other connections
+		outboundQueue.add(buf);
+		checkWritability();
+	}
+	/**
+	 * @param maxInFlight The most packets that can wait for a response, or -1 for no limit
+	 * @return If the listener was registered, or there isn't one, or false if there are too many packets waiting for a response
+	 */
+	private boolean registerResponseListener(int id, PacketListener response, CompletableFuture<Packet> future, int maxInFlight) {
+		if (response == null && future == null)
+			return true;
+		int timeout = this.timeout;
+		ResponseListener listener = new ResponseListener(id, timeout == -1 ? -1 : System.currentTimeMillis() + timeout, response, future);
+		if (!responseListeners.add(listener, maxInFlight))
+			return false;
+		if (timeout != -1) {
+			listener.timeout = timingWheel.schedule(() -> {
+				if (unregisterResponseListener(listener))
+					expireResponseListener(listener);
+			}, timeout, this);
+		}
+		if (future != null)
+			future.whenComplete((value, e) -> unregisterResponseListener(listener));
+		return true;
 	}
 	/**
 	 * Send a {@link Packet} and call the {@link PacketListener} when a response is received
@@ -170,7 +1166,7 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	 * @see #removeResponseListener(PacketListener)
 	 */
 	public int sendPacket(Packet packet, PacketListener response) throws IOException {
-		return sendPacket(packet, -1, response);
+		return sendPacket(packet, -1, response, null);
 	}
 	/**
 	 * Send a {@link Packet} without a response listener
@@ -182,6 +1178,99 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	public int sendPacket(Packet packet) throws IOException {
 		return sendPacket(packet, null);
 	}
+	/**
+	 * Send a {@link Packet} followed by a stream of any length, which the other side receives with a {@link StreamListener} <br>
+	 * The body is split into chunks, so other packets are sent between them,
+	 * and neither side ever holds more than a few hundred kilobytes of the stream <br>
+	 * Writing waits while the receiver is behind, and throws if the receiver cancels the stream <br>
+	 * The stream must be closed to end it
+	 * @param header The packet that describes the stream, which the receiver can reply to
+	 * @return The stream's body
+	 * @throws IOException If there was an error sending the header
+	 * @see Client#addStreamListener(StreamListener)
+	 * @see Server#addStreamListener(StreamListener)
+	 */
+	public OutputStream sendStream(Packet header) throws IOException {
+		return openStream(header);
+	}
+	/**
+	 * Send a {@link Packet} followed by the contents of a file, which the other side receives as a stream <br>
+	 * When the socket is a socket channel and the packets aren't queued, the file is transferred to the socket
+	 * without copying it through the JVM, and otherwise it is copied one chunk at a time <br>
+	 * This returns once the whole file has been sent
+	 * @param file The file to send
+	 * @param header The packet that describes the file, which the receiver can reply to
+	 * @throws IOException If there was an error reading the file or sending it
+	 * @see #sendStream(Packet)
+	 * @see #receiveFile(InputStream, Path)
+	 */
+	public void sendFile(Path file, Packet header) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			StreamOutput stream = openStream(header);
+			try {
+				stream.transferFrom(channel, 0, channel.size());
+			} catch (IOException | RuntimeException e) {
+				stream.abort();
+				throw e;
+			}
+			stream.close();
+		}
+	}
+	/**
+	 * Save a received stream to a file, replacing the file if it already exists <br>
+	 * Streams from {@link #sendStream(Packet)} and {@link #sendFile(Path, Packet)} are written straight from the received chunks
+	 * @param stream The stream from a {@link StreamListener}
+	 * @param file The file to write to
+	 * @return The number of bytes written
+	 * @throws IOException If there was an error receiving the stream or writing the file
+	 */
+	public static long receiveFile(InputStream stream, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			if (stream instanceof StreamInput)
+				return ((StreamInput) stream).transferTo(channel);
+			long total = 0;
+			byte[] buf = new byte[StreamOutput.CHUNK_SIZE];
+			int read;
+			while ((read = stream.read(buf)) != -1) {
+				ByteBuffer data = ByteBuffer.wrap(buf, 0, read);
+				while (data.hasRemaining())
+					channel.write(data);
+				total += read;
+			}
+			return total;
+		}
+	}
+	private StreamOutput openStream(Packet header) throws IOException {
+		if (socket == null || socket.isClosed())
+			throw new IOException("The connection isn't alive!");
+		awaitWritable();
+		
+		int packetType = getPacketId(header);
+		PacketBuffer buf = PacketBuffer.acquire();
+		try {
+			DataOutputStream out = buf.getOutput();
+			while ((packetType & ~0x7F) != 0) {
+				out.write((packetType & 0x7F) | 0x80);
+				packetType >>>= 7;
+			}
+			out.write(packetType);
+			header.write(out);
+		} catch (IOException | RuntimeException e) {
+			buf.release();
+			throw e;
+		}
+		
+		int id = lastPacketId.incrementAndGet() & Integer.MAX_VALUE;
+		StreamOutput stream = new StreamOutput(this, id);
+		sentStreams.put(id, stream);
+		try {
+			sendEncoded(buf, id, -1, PacketData.STREAM_OPEN, null, null, false);
+		} catch (IOException e) {
+			sentStreams.remove(id);
+			throw e;
+		}
+		return stream;
+	}
 	/**
 	 * Reply to a {@link Packet} and call the {@link PacketListener} when a response is received
 	 * @param toReply The packet to reply to
@@ -189,6 +1278,7 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	 * @param response The listener to call on response
 	 * @return The packet id for canceling the response listener
 	 * @throws IOException If there was an error sending the packet
+	 * @throws IllegalArgumentException If the packet to reply to wasn't received by this connection
 	 * @see #reply(Packet, Packet)
 	 * @see #replyWithResponse(Packet, Packet)
 	 * @see #setTimeout(int)
@@ -196,7 +1286,7 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	 * @see #removeResponseListener(PacketListener)
 	 */
 	public int reply(Packet toReply, Packet packet, PacketListener response) throws IOException {
-		return sendPacket(packet, responseIds.get(toReply), response);
+		return sendPacket(packet, getReplyId(toReply), response, null);
 	}
 	/**
 	 * Reply to a {@link Packet} without a response listener
@@ -210,23 +1300,16 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 		return reply(toReply, packet, null);
 	}
 	private Packet sendPacketWithResponse(Packet packet, int responseId) throws IOException, InterruptedException {
-		AtomicReference<Packet> responseRef = new AtomicReference<>();
-		int id = sendPacket(packet, responseId, (response, connection, wait) -> {
-			responseRef.set(response);
-		});
-		while (responseRef.get() == null) {
-			if (Thread.interrupted())
-				throw new InterruptedException();
-			Map.Entry<Long, PacketListener> timeout = responseListeners.get(id);
-			if (timeout == null)
-				break;
-			if (timeout.getKey() != -1 && timeout.getKey() < System.currentTimeMillis()) {
-				responseListeners.remove(id);
-				break;
-			}
-			Thread.sleep(1);
+		CompletableFuture<Packet> future = new CompletableFuture<>();
+		sendPacket(packet, responseId, null, future);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			throw e;
+		} catch (ExecutionException e) {
+			return null;
 		}
-		return responseRef.get();
 	}
 	/**
 	 * Send a {@link Packet} and wait for a response <br>
@@ -249,11 +1332,435 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	 * @return The response packet, or null if the response timed out
 	 * @throws IOException If there was an error sending the packet
 	 * @throws InterruptedException If the thread was interrupted while waiting for a response
+	 * @throws IllegalArgumentException If the packet to reply to wasn't received by this connection
 	 * @see #sendPacketWithResponse(Packet)
 	 * @see #reply(Packet, Packet, PacketListener)
 	 */
 	public Packet replyWithResponse(Packet toReply, Packet packet) throws IOException, InterruptedException {
-		return sendPacketWithResponse(packet, responseIds.get(toReply));
+		return sendPacketWithResponse(packet, getReplyId(toReply));
+	}
+	private CompletableFuture<Packet> sendPacketAsync(Packet packet, int responseId) {
+		CompletableFuture<Packet> future = new CompletableFuture<>();
+		try {
+			sendPacket(packet, responseId, null, future);
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	/**
+	 * Send a {@link Packet} without blocking, and complete the returned future with the response <br>
+	 * The future is completed by an internal thread, so dependent actions that don't specify an executor
+	 * will delay the handling of other packets <br>
+	 * The future is completed exceptionally with a {@link TimeoutException} if no response is received before the timeout,
+	 * or with an {@link IOException} if the packet couldn't be sent or the connection closed <br>
+	 * Cancelling the future removes the response listener
+	 * @param packet The packet to send
+	 * @return The future response packet
+	 * @see #replyAsync(Packet, Packet)
+	 * @see #sendPacketWithResponse(Packet)
+	 * @see #setTimeout(int)
+	 */
+	public CompletableFuture<Packet> sendPacketAsync(Packet packet) {
+		return sendPacketAsync(packet, -1);
+	}
+	/**
+	 * Reply to a {@link Packet} without blocking, and complete the returned future with the response <br>
+	 * The future behaves the same as the one from {@link #sendPacketAsync(Packet)}
+	 * @param toReply The packet to reply to
+	 * @param packet The packet to send
+	 * @return The future response packet
+	 * @throws IllegalArgumentException If the packet to reply to wasn't received by this connection
+	 * @see #sendPacketAsync(Packet)
+	 * @see #replyWithResponse(Packet, Packet)
+	 * @see #setTimeout(int)
+	 */
+	public CompletableFuture<Packet> replyAsync(Packet toReply, Packet packet) {
+		return sendPacketAsync(packet, getReplyId(toReply));
+	}
+	/**
+	 * @param toReply The packet to reply to
+	 * @return The id that the sender gave the packet
+	 * @throws IllegalArgumentException If the packet wasn't received by this connection
+	 */
+	private int getReplyId(Packet toReply) {
+		PacketContext context = toReply.getContext();
+		if (context == null || context.getConnection() != this)
+			throw new IllegalArgumentException("The packet to reply to wasn't received by this connection!");
+		return context.getId();
+	}
+	
+	/**
+	 * Set whether packets are written by a single writer from a queue, rather than by the thread sending them <br>
+	 * When enabled, sending a packet never blocks on the socket, and packets that are queued at the same time
+	 * are written together with a single flush <br>
+	 * Errors while writing are reported as {@link ErrorHandler.Error#SENDING_PACKETS} and close the connection <br>
+	 * Packets that are still queued when the connection closes are discarded <br>
+	 * Disabled by default
+	 * @param queuedWrites If packets should be queued
+	 * @see #isQueuedWrites()
+	 */
+	public void setQueuedWrites(boolean queuedWrites) {
+		this.queuedWrites = queuedWrites;
+	}
+	/**
+	 * @return If packets are written by a single writer from a queue
+	 * @see #setQueuedWrites(boolean)
+	 */
+	public boolean isQueuedWrites() {
+		return queuedWrites;
+	}
+	
+	/**
+	 * Hold back sent packets for a short window, so the packets sent within it are written together <br>
+	 * The packets are written as soon as the window ends, or once the held back packets reach the byte budget <br>
+	 * On a WebSocket, the packets are sent as a single message, which the other side splits back into packets in order,
+	 * so aggregation must only be used between Java clients and servers, since the JavaScript variant can't split the messages,
+	 * and the byte budget must fit within the other side's frame size limit <br>
+	 * The window is rounded up to whole milliseconds <br>
+	 * This implies {@link #setQueuedWrites(boolean)}, trading up to a window of latency for fewer writes and frames <br>
+	 * Disabled by default
+	 * @param windowMicros The window in microseconds, or 0 to disable aggregation
+	 * @param maxBytes The byte budget, which is also the most that is written at once
+	 * @see #isAggregating()
+	 * @see #getAggregationWindow()
+	 * @see #getAggregationBytes()
+	 */
+	public void setAggregation(int windowMicros, int maxBytes) {
+		if (windowMicros < 0)
+			throw new IllegalArgumentException("The window cannot be negative!");
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("The byte budget must be positive!");
+		this.aggregationBytes = maxBytes;
+		this.aggregationWindow = windowMicros;
+	}
+	/**
+	 * @return If sent packets are held back to be written together
+	 * @see #setAggregation(int, int)
+	 */
+	public boolean isAggregating() {
+		return aggregationWindow > 0;
+	}
+	/**
+	 * @return The window in microseconds, or 0 if aggregation is disabled
+	 * @see #setAggregation(int, int)
+	 */
+	public int getAggregationWindow() {
+		return aggregationWindow;
+	}
+	/**
+	 * @return The most bytes that are held back before being written
+	 * @see #setAggregation(int, int)
+	 */
+	public int getAggregationBytes() {
+		return aggregationBytes;
+	}
+	
+	/**
+	 * Set the watermarks for the pending bytes <br>
+	 * The connection becomes unwritable once the pending bytes reach the high watermark,
+	 * and becomes writable again once they drop to the low watermark <br>
+	 * Producers can check {@link #isWritable()}, listen for the changes, or have sending wait with {@link #setSendTimeout(int)} <br>
+	 * Disabled by default, so the connection is always writable
+	 * @param lowWatermark The low watermark in bytes
+	 * @param highWatermark The high watermark in bytes, or -1 to disable the watermarks
+	 * @see #getPendingBytes()
+	 * @see #addWritabilityListener(WritabilityListener)
+	 */
+	public void setWriteBufferWatermarks(long lowWatermark, long highWatermark) {
+		if (highWatermark != -1 && (lowWatermark < 0 || lowWatermark > highWatermark))
+			throw new IllegalArgumentException("The low watermark must be between 0 and the high watermark!");
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		checkWritability();
+	}
+	/**
+	 * @return The low watermark in bytes
+	 * @see #setWriteBufferWatermarks(long, long)
+	 */
+	public long getLowWatermark() {
+		return lowWatermark;
+	}
+	/**
+	 * @return The high watermark in bytes, or -1 if the watermarks are disabled
+	 * @see #setWriteBufferWatermarks(long, long)
+	 */
+	public long getHighWatermark() {
+		return highWatermark;
+	}
+	/**
+	 * Whether the pending bytes are below the watermarks, so producers should keep sending
+	 * @return If the connection is writable
+	 * @see #setWriteBufferWatermarks(long, long)
+	 */
+	public boolean isWritable() {
+		return !unwritable;
+	}
+	
+	/**
+	 * The listener is called when the connection's writability changes <br>
+	 * Calling this twice will cause the listener to be called twice
+	 * @param listener The listener to add
+	 * @see #removeWritabilityListener(WritabilityListener)
+	 * @see #setWriteBufferWatermarks(long, long)
+	 */
+	public void addWritabilityListener(WritabilityListener listener) {
+		writabilityListeners.add(listener);
+	}
+	/**
+	 * The listener will stop being called <br>
+	 * If {@link #addWritabilityListener(WritabilityListener)} was called twice, it will still be called once
+	 * @param listener The listener to remove
+	 * @return If the listener was registered
+	 * @see #addWritabilityListener(WritabilityListener)
+	 */
+	public boolean removeWritabilityListener(WritabilityListener listener) {
+		return writabilityListeners.remove(listener);
+	}
+	
+	/**
+	 * Limit the memory that received packets can use <br>
+	 * A packet whose payload, or decompressed payload, is larger than the maximum frame size closes the connection,
+	 * without allocating the payload's full claimed length <br>
+	 * When the packet listeners fall behind, the connection is also closed once too many received bytes are waiting for them,
+	 * counting the decompressed size of compressed packets <br>
+	 * In WebSocket mode, larger messages are rejected before they are assembled, using the frame size limit from when the socket was started <br>
+	 * Exceeding either limit reports {@link ErrorHandler.Error#EXCEEDED_INBOUND_LIMIT}
+	 * @param maxFrameSize The largest payload that is accepted, in bytes, or -1 for no limit
+	 * @param maxQueuedBytes The most payload bytes that can wait for the packet listeners, or -1 for no limit
+	 * @see #getMaxFrameSize()
+	 * @see #getMaxQueuedInboundBytes()
+	 */
+	public void setInboundLimits(int maxFrameSize, long maxQueuedBytes) {
+		if (maxFrameSize < -1)
+			throw new IllegalArgumentException("The maximum frame size must be -1 or more!");
+		if (maxQueuedBytes < -1)
+			throw new IllegalArgumentException("The maximum queued bytes must be -1 or more!");
+		this.maxFrameSize = maxFrameSize;
+		this.maxQueuedInboundBytes = maxQueuedBytes;
+		SocketAccess socket = this.socket;
+		if (socket != null)
+			socket.setInboundLimits(maxFrameSize, maxQueuedBytes);
+	}
+	/**
+	 * @return The largest payload that is accepted, in bytes, or -1 if there is no limit
+	 * @see #setInboundLimits(int, long)
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	/**
+	 * @return The most payload bytes that can wait for the packet listeners, or -1 if there is no limit
+	 * @see #setInboundLimits(int, long)
+	 */
+	public long getMaxQueuedInboundBytes() {
+		return maxQueuedInboundBytes;
+	}
+	/**
+	 * Limit how many received streams can be handled at once, since each one runs its listeners on its own thread <br>
+	 * Receiving more closes the connection, reporting {@link ErrorHandler.Error#EXCEEDED_INBOUND_LIMIT} <br>
+	 * The bytes buffered by received streams, up to 256 KB each, count toward the queued bytes of {@link #setInboundLimits(int, long)},
+	 * so that limit should leave room for the streams <br>
+	 * The limit defaults to 16
+	 * @param maxReceivedStreams The most streams, or -1 for no limit
+	 * @see #getMaxReceivedStreams()
+	 * @see Client#addStreamListener(StreamListener)
+	 */
+	public void setMaxReceivedStreams(int maxReceivedStreams) {
+		if (maxReceivedStreams < -1)
+			throw new IllegalArgumentException("The maximum streams must be -1 or more!");
+		this.maxReceivedStreams = maxReceivedStreams;
+	}
+	/**
+	 * @return The most received streams that can be handled at once, or -1 if there is no limit
+	 * @see #setMaxReceivedStreams(int)
+	 */
+	public int getMaxReceivedStreams() {
+		return maxReceivedStreams;
+	}
+	
+	/**
+	 * Set how long sending a packet waits for the connection to become writable <br>
+	 * Broadcasts from the {@link Server} never wait, since they are handled by the {@link SlowConsumerPolicy}
+	 * @param sendTimeout The timeout in milliseconds, 0 to wait indefinitely, or -1 to send without waiting
+	 * @see #getSendTimeout()
+	 * @see #setWriteBufferWatermarks(long, long)
+	 */
+	public void setSendTimeout(int sendTimeout) {
+		if (sendTimeout < -1)
+			throw new IllegalArgumentException("The timeout must be -1 or more!");
+		this.sendTimeout = sendTimeout;
+	}
+	/**
+	 * @return The timeout in milliseconds, 0 if sending waits indefinitely, or -1 if sending doesn't wait
+	 * @see #setSendTimeout(int)
+	 */
+	public int getSendTimeout() {
+		return sendTimeout;
+	}
+	
+	/**
+	 * Internal use only <br>
+	 * Compare the pending bytes to the watermarks, and notify the listeners if the writability changed <br>
+	 * While the connection is unwritable, this is repeated on the timing wheel,
+	 * since the socket's own buffers drain without notifying the connection
+	 */
+	void checkWritability() {
+		long highWatermark = this.highWatermark;
+		if (!unwritable && (highWatermark == -1 || getPendingBytes() < highWatermark))
+			return;
+		boolean writable;
+		synchronized (writabilityLock) {
+			highWatermark = this.highWatermark;
+			if (!unwritable) {
+				if (highWatermark == -1 || getPendingBytes() < highWatermark)
+					return;
+				unwritable = true;
+				writable = false;
+				scheduleWritabilityCheck();
+			} else {
+				if (highWatermark != -1 && getPendingBytes() > lowWatermark)
+					return;
+				unwritable = false;
+				writable = true;
+				writabilityLock.notifyAll();
+			}
+			for (WritabilityListener listener : writabilityListeners) {
+				try {
+					listener.onWritabilityChanged(this, writable);
+				} catch (Exception e) {
+					onError(e, this, ErrorHandler.Error.INSIDE_WRITABILITY_LISTENER);
+				}
+			}
+		}
+	}
+	private void scheduleWritabilityCheck() {
+		timingWheel.schedule(() -> {
+			if (!unwritable || closed.get())
+				return;
+			checkWritability();
+			if (unwritable)
+				scheduleWritabilityCheck();
+		}, 10, this);
+	}
+	/**
+	 * Wait for the connection to become writable, if sending should wait
+	 * @throws IOException If the timeout expired, the connection closed, or the thread was interrupted
+	 */
+	private void awaitWritable() throws IOException {
+		int sendTimeout = this.sendTimeout;
+		if (sendTimeout == -1 || !unwritable)
+			return;
+		long deadline = System.currentTimeMillis() + sendTimeout;
+		synchronized (writabilityLock) {
+			while (unwritable) {
+				if (closed.get())
+					throw new IOException("The connection isn't alive!");
+				long remaining = deadline - System.currentTimeMillis();
+				if (sendTimeout != 0 && remaining <= 0)
+					throw new SocketTimeoutException("Timed out waiting for the connection to become writable");
+				try {
+					writabilityLock.wait(sendTimeout == 0 ? 0 : remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the connection to become writable");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of bytes that have been sent, but not yet written to the network <br>
+	 * This includes the queued packets, and the data buffered by sockets that don't block when sending
+	 * @return The number of pending bytes
+	 * @see Server#setSlowConsumerPolicy(SlowConsumerPolicy, long)
+	 */
+	public long getPendingBytes() {
+		SocketAccess socket = this.socket;
+		return outboundQueue.getPendingBytes() + (socket == null ? 0 : socket.getPendingBytes());
+	}
+	
+	/**
+	 * Internal use only <br>
+	 * Hold a broadcast back until the pending bytes drop to the limit, replacing the held back broadcast with the same key <br>
+	 * The held back broadcasts are sent in the order they were last replaced
+	 * @param key The key, such as the packet type
+	 * @param buf The packet, including the header, which is retained until it is sent or replaced
+	 * @param maxPendingBytes The limit
+	 * @see SlowConsumerPolicy#CONFLATE
+	 */
+	void conflate(Object key, PacketBuffer buf, long maxPendingBytes) {
+		buf.retain(1);
+		PacketBuffer replaced;
+		synchronized (conflated) {
+			if (closed.get()) {
+				buf.release();
+				return;
+			}
+			replaced = conflated.remove(key);
+			conflated.put(key, buf);
+			conflationLimit = maxPendingBytes;
+			if (!hasConflated) {
+				hasConflated = true;
+				scheduleConflationFlush();
+			}
+		}
+		if (replaced != null)
+			replaced.release();
+	}
+	/**
+	 * @return If any broadcasts are being held back
+	 */
+	boolean hasConflatedPackets() {
+		return hasConflated;
+	}
+	/**
+	 * Internal use only <br>
+	 * Send the held back broadcasts if the pending bytes have dropped to the limit
+	 * @return If there aren't any held back broadcasts left
+	 */
+	boolean flushConflatedPackets() {
+		if (!hasConflated)
+			return true;
+		synchronized (conflated) {
+			if (conflated.isEmpty())
+				return true;
+			if (getPendingBytes() > conflationLimit)
+				return false;
+			SocketAccess socket = this.socket;
+			boolean direct = (socket.queuesWrites() && !queuedWrites && aggregationWindow == 0);
+			for (PacketBuffer buf : conflated.values()) {
+				if (direct && !outboundQueue.isBusy()) {
+					try {
+						socket.sendPacket(buf.toByteBuffer());
+					} catch (IOException e) {
+						onError(e, this, ErrorHandler.Error.SENDING_PACKETS);
+					} finally {
+						buf.release();
+					}
+				} else
+					outboundQueue.add(buf); // Sockets that block are written by the queue's writer
+			}
+			conflated.clear();
+			hasConflated = false;
+		}
+		checkWritability();
+		return true;
+	}
+	private void scheduleConflationFlush() {
+		timingWheel.schedule(() -> {
+			if (closed.get())
+				clearConflatedPackets();
+			else if (!flushConflatedPackets())
+				scheduleConflationFlush();
+		}, 10, this);
+	}
+	private void clearConflatedPackets() {
+		synchronized (conflated) {
+			conflated.values().forEach(PacketBuffer::release);
+			conflated.clear();
+			hasConflated = false;
+		}
 	}
 	
 	/**
@@ -278,6 +1785,33 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	public int getTimeout() {
 		return timeout;
 	}
+	/**
+	 * Limit how many sent packets can wait for a response at once <br>
+	 * Sending another packet with a response listener throws an {@link IOException} instead,
+	 * or completes the future exceptionally for {@link #sendPacketAsync(Packet)}
+	 * @param maxInFlight The most packets that can wait for a response, or -1 for no limit
+	 * @see #getMaxInFlight()
+	 * @see #getInFlight()
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < -1 || maxInFlight == 0)
+			throw new IllegalArgumentException("The maximum must be positive or -1!");
+		this.maxInFlight = maxInFlight;
+	}
+	/**
+	 * @return The most packets that can wait for a response, or -1 if there is no limit
+	 * @see #setMaxInFlight(int)
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+	/**
+	 * @return The number of sent packets that are waiting for a response
+	 * @see #setMaxInFlight(int)
+	 */
+	public int getInFlight() {
+		return responseListeners.size();
+	}
 	/**
 	 * Remove a response listener based on the packet
 	 * @param packetId The id of the packet, from {@link #sendPacket(Packet, PacketListener)}
@@ -286,7 +1820,12 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	 * @see #setTimeout(int)
 	 */
 	public boolean removeResponseListener(int packetId) {
-		return responseListeners.remove((Integer) packetId) != null;
+		ResponseListener listener = responseListeners.get(packetId);
+		if (listener == null || !unregisterResponseListener(listener))
+			return false;
+		if (listener.future != null)
+			listener.future.cancel(false);
+		return true;
 	}
 	/**
 	 * Remove a response listener based on the listener itself <br>
@@ -297,47 +1836,84 @@ public abstract class Connection extends PacketRegistry implements ErrorHandler<
 	 * @see #setTimeout(int)
 	 */
 	public boolean removeResponseListener(PacketListener listener) {
-		return responseListeners.entrySet().removeIf(entry -> entry.getValue().getValue() == listener);
+		boolean output = false;
+		for (ResponseListener responseListener : responseListeners.values()) {
+			if (responseListener.listener == listener)
+				output |= unregisterResponseListener(responseListener);
+		}
+		return output;
 	}
 	/**
 	 * Force the connection to clean expired response listeners <br>
-	 * Automatically called when a packet is sent/replied to
+	 * Expired response listeners are automatically removed shortly after they expire,
+	 * and their {@link PacketListener#onTimeout(int, Connection)} is called
 	 * @see #setTimeout(int)
 	 * @see #removeResponseListener(int)
 	 * @see #removeResponseListener(PacketListener)
 	 */
 	public void cleanResponseListeners() {
 		long time = System.currentTimeMillis();
-		responseListeners.entrySet().removeIf(entry ->
-			entry.getValue().getKey() != -1 && entry.getValue().getKey() < time);
+		for (ResponseListener listener : responseListeners.values()) {
+			if (listener.isExpired(time) && unregisterResponseListener(listener))
+				expireResponseListener(listener);
+		}
+	}
+	private boolean unregisterResponseListener(ResponseListener listener) {
+		if (!responseListeners.remove(listener))
+			return false;
+		TimingWheel.Timeout timeout = listener.timeout;
+		if (timeout != null)
+			timeout.cancel();
+		return true;
+	}
+	private void expireResponseListener(ResponseListener listener) {
+		if (listener.future != null) {
+			listener.future.completeExceptionally(new TimeoutException("No response was received before the timeout"));
+			return;
+		}
+		try {
+			listenerExecutor.execute(() -> {
+				try {
+					listener.listener.onTimeout(listener.id, this);
+				} catch (Exception e) {
+					onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			onError(e, this, ErrorHandler.Error.INSIDE_PACKET_LISTENER);
+		}
+	}
+	private void clearResponseListeners() {
+		for (ResponseListener listener : responseListeners.values()) {
+			if (unregisterResponseListener(listener) && listener.future != null)
+				listener.future.completeExceptionally(new IOException("The connection was closed"));
+		}
 	}
 	
 	/**
 	 * @return If the connection is alive
 	 */
 	public boolean isAlive() {
-		if (thread == null)
-			return false;
-		if (thread.isAlive())
-			return true;
-		thread = null;
-		return false;
+		return alive;
 	}
 	
 	/**
 	 * Stops accepting packets and closes the connection <br>
-	 * Will block until the internal thread exits
+	 * Will block until the internal thread exits, if there is one
 	 * @throws InterruptedException If this thread is interrupted before the internal thread exits
 	 * @throws IOException If an I/O error occurs when closing the socket
 	 */
 	public void close() throws IOException, InterruptedException {
-		thread.interrupt();
+		Thread thread = this.thread;
+		if (thread != null)
+			thread.interrupt();
 		try {
 			socket.close();
 		} finally {
-			responseListeners.clear();
-			responseIds.clear();
-			thread.join();
+			outboundQueue.clear();
+			clearResponseListeners();
+			if (thread != null && thread != Thread.currentThread())
+				thread.join();
 		}
 	}
 	
@@ -0,0 +1,94 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses packets with the JDK's {@link Deflater} and {@link Inflater} <br>
+ * Each connection keeps its own instances, which are reset between packets instead of being recreated
+ */
+public class DeflateCompression implements PacketCompression {
+	
+	private static class DeflateCodec implements Codec {
+		private final Deflater deflater;
+		private final Inflater inflater;
+		private final byte[] chunk;
+		private DeflateCodec(int level) {
+			this.deflater = new Deflater(level);
+			this.inflater = new Inflater();
+			this.chunk = new byte[8192];
+		}
+		
+		@Override
+		public void compress(byte[] src, int offset, int length, OutputStream out) throws IOException {
+			deflater.reset();
+			deflater.setInput(src, offset, length);
+			deflater.finish();
+			while (!deflater.finished()) {
+				int count = deflater.deflate(chunk);
+				out.write(chunk, 0, count);
+			}
+		}
+		@Override
+		public void decompress(byte[] src, int offset, int length, byte[] dest, int decompressedLength) throws IOException {
+			inflater.reset();
+			inflater.setInput(src, offset, length);
+			try {
+				int count = 0;
+				while (count < decompressedLength) {
+					int read = inflater.inflate(dest, count, decompressedLength - count);
+					if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					count += read;
+				}
+				if (count != decompressedLength)
+					throw new IOException("The decompressed packet has the wrong length!");
+			} catch (DataFormatException e) {
+				throw new IOException("Unable to decompress packet", e);
+			}
+		}
+		@Override
+		public void close() {
+			deflater.end();
+			inflater.end();
+		}
+	}
+	
+	private final int level;
+	
+	/**
+	 * Use the default compression level
+	 */
+	public DeflateCompression() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+	/**
+	 * @param level The compression level, from 0 to 9, or -1 for the default
+	 * @see Deflater#setLevel(int)
+	 */
+	public DeflateCompression(int level) {
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level!");
+		this.level = level;
+	}
+	
+	/**
+	 * @return The compression level
+	 */
+	public int getLevel() {
+		return level;
+	}
+	
+	@Override
+	public String getName() {
+		return "deflate";
+	}
+	@Override
+	public Codec newCodec() {
+		return new DeflateCodec(level);
+	}
+	
+}
@@ -0,0 +1,44 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import com.luneruniverse.simplepacketlibrary.listeners.WaitState;
+
+/**
+ * How a {@link Connection} hands received packets to the packet listeners, which decides their ordering and parallelism <br>
+ * Response listeners are dispatched the same way, while futures are always completed directly
+ * @see Connection#setDispatchMode(DispatchMode, java.util.function.Function)
+ * @see Server#setDispatchMode(DispatchMode, java.util.function.Function)
+ */
+public enum DispatchMode {
+	/**
+	 * The listeners run on the thread that read the packet, one after the other <br>
+	 * This is the cheapest mode for listeners that return quickly, but a slow listener delays every packet after it,
+	 * and a listener must not wait for a response, since the response can't be read until it returns <br>
+	 * On a server with event loops, or in WebSocket mode, the reading thread is shared by many connections,
+	 * so a slow listener also delays the packets of every other connection on that thread
+	 * @see Server#setEventLoopThreads(int)
+	 * @see DispatchMode
+	 */
+	INLINE,
+	/**
+	 * The packets are handled one at a time, in the order they were received, on the listener executor <br>
+	 * Unlike the other modes, each packet's listeners run at the same time, and the next packet waits for all of them,
+	 * unless they call {@link WaitState#dontWait()} <br>
+	 * This is the default
+	 * @see DispatchMode
+	 */
+	SERIAL,
+	/**
+	 * The packets with the same key are handled one at a time, in the order they were received,
+	 * while packets with different keys can be handled at the same time on the listener executor <br>
+	 * Unlike {@link #SERIAL}, each packet's listeners run one after the other, and {@link WaitState#dontWait()} has no effect <br>
+	 * Keys are spread over a fixed number of lanes, so different keys occasionally share a lane and wait for each other
+	 * @see DispatchMode
+	 */
+	KEYED,
+	/**
+	 * Every packet is handled as soon as it is received, on the listener executor, without any ordering <br>
+	 * Unlike {@link #SERIAL}, each packet's listeners run one after the other, and {@link WaitState#dontWait()} has no effect
+	 * @see DispatchMode
+	 */
+	PARALLEL
+}
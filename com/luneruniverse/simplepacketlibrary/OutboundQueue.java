@@ -0,0 +1,200 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.luneruniverse.simplepacketlibrary.accessors.SocketAccess;
+import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
+
+/**
+ * A multi-producer, single-consumer queue of packets waiting to be written to a {@link Connection} <br>
+ * Any thread can add packets without blocking, and at most one writer task drains the queue at a time,
+ * passing all the packets that are ready to the socket as a single batch <br>
+ * When the connection aggregates packets, the writer is only started once the window ends or the byte budget is reached,
+ * so no thread is held while the packets are gathered
+ * @see Connection#setAggregation(int, int)
+ */
+class OutboundQueue {
+	
+	/**
+	 * Reuses idle threads, which are discarded after a second of inactivity
+	 */
+	private static final Executor WRITER_EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS,
+			new SynchronousQueue<>(), runnable -> new Thread(runnable, "Packet Writer"));
+	/**
+	 * Ends the aggregation windows, which are rounded up to its millisecond ticks
+	 */
+	private static final TimingWheel AGGREGATION_WHEEL = new TimingWheel("Packet Aggregation", 1, 64);
+	
+	private static final int MAX_BATCH_BYTES = 64 * 1024;
+	
+	private final Connection connection;
+	private final Queue<PacketBuffer> queue;
+	private final AtomicInteger wip; // The number of times the writer has been signalled
+	private final AtomicLong pendingBytes; // Queued, or being written
+	private final AtomicLong window; // The open aggregation window, or 0
+	private final AtomicLong lastWindow;
+	
+	OutboundQueue(Connection connection) {
+		this.connection = connection;
+		this.queue = new ConcurrentLinkedQueue<>();
+		this.wip = new AtomicInteger();
+		this.pendingBytes = new AtomicLong();
+		this.window = new AtomicLong();
+		this.lastWindow = new AtomicLong();
+	}
+	
+	/**
+	 * Queue a packet, and start the writer if it isn't already running <br>
+	 * The buffer is released once it has been written or discarded
+	 * @param data The packet
+	 */
+	void add(PacketBuffer data) {
+		long pending = pendingBytes.addAndGet(data.size());
+		queue.add(data);
+		if (wip.getAndIncrement() == 0) {
+			if (connection.isAggregating() && pending < connection.getAggregationBytes())
+				openWindow();
+			else
+				startWriter();
+		} else if (pending >= connection.getAggregationBytes())
+			closeWindow();
+	}
+	
+	/**
+	 * Start the writer once the aggregation window ends
+	 */
+	private void openWindow() {
+		long id = lastWindow.incrementAndGet();
+		window.set(id);
+		AGGREGATION_WHEEL.schedule(() -> {
+			if (window.compareAndSet(id, 0))
+				startWriter();
+		}, (connection.getAggregationWindow() + 999) / 1000, connection);
+	}
+	/**
+	 * Start the writer now if a window is open, since the byte budget was reached
+	 */
+	private void closeWindow() {
+		long id = window.get();
+		if (id != 0 && window.compareAndSet(id, 0))
+			startWriter();
+	}
+	private void startWriter() {
+		try {
+			WRITER_EXECUTOR.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			wip.set(0);
+			clear();
+			connection.onError(e, connection, ErrorHandler.Error.SENDING_PACKETS);
+		}
+	}
+	
+	private void drain() {
+		List<PacketBuffer> batch = new ArrayList<>();
+		List<ByteBuffer> data = new ArrayList<>();
+		int missed = 1;
+		do {
+			boolean aggregating = connection.isAggregating();
+			int maxBatchBytes = (aggregating ? connection.getAggregationBytes() : MAX_BATCH_BYTES);
+			PacketBuffer buf;
+			int batchSize = 0;
+			while ((buf = queue.poll()) != null) {
+				if (batchSize != 0 && batchSize + buf.size() > maxBatchBytes) { // Keep each batch within the budget
+					if (!writeBatch(batch, data, batchSize, aggregating)) {
+						pendingBytes.addAndGet(-buf.size());
+						buf.release();
+						return;
+					}
+					batchSize = 0;
+				}
+				batch.add(buf);
+				data.add(buf.toByteBuffer());
+				batchSize += buf.size();
+				if (batchSize >= maxBatchBytes || queue.isEmpty()) {
+					if (!writeBatch(batch, data, batchSize, aggregating))
+						return;
+					batchSize = 0;
+				}
+			}
+			missed = wip.addAndGet(-missed);
+			if (missed != 0 && connection.isAggregating() && pendingBytes.get() < connection.getAggregationBytes()) {
+				// The packets sent during the write wait for a single new window, whose writer polls all of them
+				wip.set(1);
+				openWindow();
+				return;
+			}
+		} while (missed != 0);
+	}
+	private boolean writeBatch(List<PacketBuffer> batch, List<ByteBuffer> data, int batchSize, boolean aggregating) {
+		boolean written = write(data, aggregating);
+		pendingBytes.addAndGet(-batchSize);
+		batch.forEach(PacketBuffer::release);
+		batch.clear();
+		data.clear();
+		if (written)
+			connection.checkWritability();
+		return written;
+	}
+	private boolean write(List<ByteBuffer> data, boolean batch) {
+		SocketAccess socket = connection.socket;
+		try {
+			if (socket == null || socket.isClosed())
+				throw new IOException("The connection isn't alive!");
+			if (batch)
+				socket.sendBatch(data);
+			else
+				socket.sendPackets(data);
+			return true;
+		} catch (IOException e) {
+			clear();
+			wip.set(0);
+			if (socket == null || socket.isClosed())
+				return false;
+			connection.onError(e, connection, ErrorHandler.Error.SENDING_PACKETS);
+			try {
+				connection.close();
+			} catch (IOException | InterruptedException e1) {
+				connection.onError(e1, connection, ErrorHandler.Error.CLOSING_CONNECTION);
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * @return If the writer is running, so a packet sent directly could overtake the queued ones
+	 */
+	boolean isBusy() {
+		return wip.get() != 0;
+	}
+	
+	/**
+	 * @return The number of bytes that are queued or being written
+	 */
+	long getPendingBytes() {
+		return pendingBytes.get();
+	}
+	
+	/**
+	 * Discard all the queued packets
+	 */
+	void clear() {
+		PacketBuffer buf;
+		while ((buf = queue.poll()) != null) {
+			pendingBytes.addAndGet(-buf.size());
+			buf.release();
+		}
+	}
+	
+}
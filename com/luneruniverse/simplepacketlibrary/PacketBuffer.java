@@ -0,0 +1,261 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.luneruniverse.simplepacketlibrary.accessors.PacketData;
+import com.luneruniverse.simplepacketlibrary.accessors.SocketAccess;
+
+/**
+ * A pooled, growable byte array that a packet is encoded into <br>
+ * Space for the largest header is reserved at the start, so the body is written in place
+ * and the header is filled in afterwards, right before the body, without copying the body <br>
+ * A buffer can be shared by several writers, such as when broadcasting, by retaining it once per extra writer
+ * @see #acquire()
+ * @see #release()
+ */
+class PacketBuffer extends OutputStream {
+	
+	static final int HEADER_SIZE = 16;
+	static final int MAX_HEADER_SIZE = 21; // A flags byte and four varints, for compact frames
+	
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 256;
+	private static final Queue<PacketBuffer> POOL = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger POOL_SIZE = new AtomicInteger();
+	
+	/**
+	 * Get an empty buffer from the pool, or create one if the pool is empty
+	 * @return The buffer, with the header reserved
+	 */
+	static PacketBuffer acquire() {
+		PacketBuffer buf = POOL.poll();
+		if (buf == null)
+			buf = new PacketBuffer();
+		else
+			POOL_SIZE.decrementAndGet();
+		buf.count = MAX_HEADER_SIZE;
+		buf.start = MAX_HEADER_SIZE;
+		buf.references.set(1);
+		buf.compressed = false;
+		return buf;
+	}
+	
+	
+	private byte[] buf;
+	private int start; // Where the header starts
+	private int count;
+	private final DataOutputStream out;
+	private final AtomicInteger references;
+	private boolean compressed;
+	
+	private PacketBuffer() {
+		this.buf = new byte[INITIAL_CAPACITY];
+		this.out = new DataOutputStream(this);
+		this.references = new AtomicInteger();
+	}
+	
+	/**
+	 * @return A stream that appends to the body
+	 */
+	DataOutputStream getOutput() {
+		return out;
+	}
+	
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+	/**
+	 * Append a region of a file to the body
+	 * @param file The file
+	 * @param position Where the region starts
+	 * @param length The length of the region
+	 * @throws IOException If there was an error reading the file, or it ended first
+	 */
+	void write(FileChannel file, long position, int length) throws IOException {
+		ensureCapacity(count + length);
+		SocketAccess.readFully(file, ByteBuffer.wrap(buf, count, length), position);
+		count += length;
+	}
+	private void ensureCapacity(int capacity) {
+		if (capacity < 0)
+			throw new OutOfMemoryError("Packet is too large");
+		if (capacity > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(capacity, buf.length < (Integer.MAX_VALUE >> 1) ? buf.length << 1 : Integer.MAX_VALUE - 8));
+	}
+	
+	/**
+	 * Fill in the header, including the length of the body written so far
+	 * @param id The id of the packet
+	 * @param responseId The packet being responded to, or -1
+	 * @param packetType The type of the packet
+	 * @param compact If the compact header should be used
+	 * @see com.luneruniverse.simplepacketlibrary.accessors.PacketData#SWITCH
+	 */
+	void writeHeader(int id, int responseId, int packetType, boolean compact) {
+		writeHeader(id, responseId, packetType, compact, bodySize());
+	}
+	/**
+	 * Fill in the header for a body that is sent separately, such as from a file
+	 * @param id The id of the packet
+	 * @param responseId The packet being responded to, or -1
+	 * @param packetType The type of the packet
+	 * @param compact If the compact header should be used
+	 * @param length The length of the body
+	 */
+	void writeHeader(int id, int responseId, int packetType, boolean compact, int length) {
+		if (!compact) {
+			start = MAX_HEADER_SIZE - HEADER_SIZE;
+			putInt(start, id);
+			putInt(start + 4, responseId);
+			putInt(start + 8, packetType);
+			putInt(start + 12, length);
+			return;
+		}
+		int flags = (compressed ? PacketData.FLAG_COMPRESSED : 0);
+		int size = 1 + varintSize(packetType) + varintSize(id) + varintSize(length);
+		if (responseId != -1) {
+			flags |= PacketData.FLAG_RESPONSE;
+			size += varintSize(responseId);
+		}
+		start = MAX_HEADER_SIZE - size;
+		buf[start] = (byte) flags;
+		int index = putVarint(start + 1, packetType);
+		index = putVarint(index, id);
+		if (responseId != -1)
+			index = putVarint(index, responseId);
+		putVarint(index, length);
+	}
+	private void putInt(int index, int value) {
+		buf[index] = (byte) (value >>> 24);
+		buf[index + 1] = (byte) (value >>> 16);
+		buf[index + 2] = (byte) (value >>> 8);
+		buf[index + 3] = (byte) value;
+	}
+	private int putVarint(int index, int value) {
+		return putVarint(buf, index, value);
+	}
+	private static int putVarint(byte[] buf, int index, int value) {
+		while ((value & ~0x7F) != 0) {
+			buf[index++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[index++] = (byte) value;
+		return index;
+	}
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			size++;
+			value >>>= 7;
+		}
+		return size;
+	}
+	
+	/**
+	 * Create a buffer with a copy of the body, so it can be sent with a different header
+	 * @return The copy, with the header reserved
+	 */
+	PacketBuffer copyBody() {
+		PacketBuffer copy = acquire();
+		copy.write(buf, MAX_HEADER_SIZE, count - MAX_HEADER_SIZE);
+		return copy;
+	}
+	
+	/**
+	 * Create a buffer with the body compressed, prefixed by the body's length <br>
+	 * The compressed body can only be sent with a compact header
+	 * @param codec The codec, which is locked while compressing, since it may be shared
+	 * @return The compressed copy, with the header reserved, or null if compressing didn't make the body smaller
+	 * @throws IOException If there was an error compressing the body
+	 * @see com.luneruniverse.simplepacketlibrary.accessors.PacketData#FLAG_COMPRESSED
+	 */
+	PacketBuffer compressBody(PacketCompression.Codec codec) throws IOException {
+		int length = bodySize();
+		PacketBuffer compressed = acquire();
+		try {
+			compressed.count = putVarint(compressed.buf, MAX_HEADER_SIZE, length);
+			synchronized (codec) {
+				codec.compress(buf, MAX_HEADER_SIZE, length, compressed);
+			}
+		} catch (IOException | RuntimeException e) {
+			compressed.release();
+			throw e;
+		}
+		if (compressed.bodySize() >= length) {
+			compressed.release();
+			return null;
+		}
+		compressed.compressed = true;
+		return compressed;
+	}
+	
+	/**
+	 * @return The number of bytes in the body
+	 */
+	int bodySize() {
+		return count - MAX_HEADER_SIZE;
+	}
+	/**
+	 * @return The number of bytes in the packet, including the header
+	 */
+	int size() {
+		return count - start;
+	}
+	
+	/**
+	 * The returned buffer is only valid until this is released <br>
+	 * Each call returns a new view, so the views can be consumed independently
+	 * @return A view of the packet, including the header
+	 */
+	ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buf, start, count - start);
+	}
+	
+	/**
+	 * Add references, each of which must be released
+	 * @param count The number of references to add
+	 */
+	void retain(int count) {
+		references.addAndGet(count);
+	}
+	
+	/**
+	 * Release a reference, and return this buffer to the pool once there are no references left <br>
+	 * The buffer must not be used afterwards
+	 */
+	void release() {
+		if (references.decrementAndGet() != 0)
+			return;
+		if (buf.length > MAX_POOLED_CAPACITY)
+			buf = new byte[INITIAL_CAPACITY];
+		if (POOL_SIZE.incrementAndGet() <= MAX_POOLED_BUFFERS)
+			POOL.add(this);
+		else
+			POOL_SIZE.decrementAndGet();
+	}
+	
+	@Override
+	public void close() {
+		// Closing the packet's stream shouldn't affect the buffer
+	}
+	
+}
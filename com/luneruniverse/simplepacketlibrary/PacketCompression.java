@@ -0,0 +1,55 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses the bodies of packets that are larger than a threshold <br>
+ * Both sides must use a compression with the same name, otherwise the packets are sent uncompressed
+ * @see DeflateCompression
+ * @see Client#setCompression(PacketCompression, int)
+ * @see Server#setCompression(PacketCompression, int)
+ */
+public interface PacketCompression {
+	
+	/**
+	 * The state for a single connection, which is reused for every packet <br>
+	 * The calls are never concurrent
+	 */
+	public interface Codec {
+		/**
+		 * Compress a packet's body
+		 * @param src The array containing the body
+		 * @param offset Where the body starts
+		 * @param length The length of the body
+		 * @param out Where to write the compressed bytes
+		 * @throws IOException If there was an error compressing the body
+		 */
+		public void compress(byte[] src, int offset, int length, OutputStream out) throws IOException;
+		/**
+		 * Decompress a packet's body
+		 * @param src The array containing the compressed bytes
+		 * @param offset Where the compressed bytes start
+		 * @param length The number of compressed bytes
+		 * @param dest Where to write the body, starting at 0
+		 * @param decompressedLength The length of the body, which fits in dest
+		 * @throws IOException If the bytes couldn't be decompressed
+		 */
+		public void decompress(byte[] src, int offset, int length, byte[] dest, int decompressedLength) throws IOException;
+		/**
+		 * Free any resources, after which the codec isn't used again
+		 */
+		public void close();
+	}
+	
+	/**
+	 * @return The name, which is sent to the other side to check that both sides use the same compression
+	 */
+	public String getName();
+	/**
+	 * Create the state for a single connection
+	 * @return The codec
+	 */
+	public Codec newCodec();
+	
+}
@@ -1,9 +1,16 @@
 package com.luneruniverse.simplepacketlibrary;
 
 import java.io.DataInputStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.luneruniverse.simplepacketlibrary.packets.Packet;
 import com.luneruniverse.simplepacketlibrary.packets.PrimitivePacket;
@@ -20,7 +27,8 @@ public class PacketRegistry {
 	@FunctionalInterface
 	public interface PacketConstructor<T extends Packet> {
 		/**
-		 * Deserializes a packet from a {@link DataInputStream}
+		 * Deserializes a packet from a {@link DataInputStream} <br>
+		 * The stream is reused for other packets, so it must not be kept after this returns
 		 * @param in The data stream to create your packet from
 		 * @return The created packet
 		 * @throws Exception If there was an error deserializing the packet
@@ -45,17 +53,64 @@ public class PacketRegistry {
 			return false;
 		}
 	}
+	/**
+	 * An immutable list of packet types, which is shared between registries until one of them registers another type <br>
+	 * The ids are cached for each packet class, which is safe since the types never change
+	 */
+	private static class PacketTypes {
+		private static final PacketTypes DEFAULT = new PacketTypes(new ArrayList<>()).with(new PacketType<>(PrimitivePacket.class, PrimitivePacket::new));
+		
+		private final List<PacketType<? extends Packet>> types;
+		private final Map<Class<?>, Integer> ids;
+		private PacketTypes(List<PacketType<? extends Packet>> types) {
+			this.types = types;
+			this.ids = new ConcurrentHashMap<>();
+		}
+		
+		/**
+		 * @return A copy with the type added, or this if it was already included
+		 */
+		private PacketTypes with(PacketType<? extends Packet> type) {
+			if (types.contains(type))
+				return this;
+			List<PacketType<? extends Packet>> newTypes = new ArrayList<>(types.size() + 1);
+			newTypes.addAll(types);
+			newTypes.add(type);
+			return new PacketTypes(newTypes);
+		}
+		/**
+		 * @return A copy with the missing types added, or either of the lists if it already includes the other
+		 */
+		private PacketTypes with(PacketTypes other) {
+			if (other.startsWith(this))
+				return other;
+			PacketTypes merged = this;
+			for (PacketType<? extends Packet> type : other.types)
+				merged = merged.with(type);
+			return merged;
+		}
+		private boolean startsWith(PacketTypes prefix) {
+			if (prefix == this)
+				return true;
+			if (prefix.types.size() > types.size())
+				return false;
+			for (int i = 0; i < prefix.types.size(); i++) {
+				if (!types.get(i).equals(prefix.types.get(i)))
+					return false;
+			}
+			return true;
+		}
+	}
 	
 	
-	private final List<PacketType<? extends Packet>> packetTypes;
+	private volatile PacketTypes packetTypes;
 	
 	/**
 	 * Will by include all the default packet types
 	 * @see com.luneruniverse.simplepacketlibrary.packets
 	 */
 	public PacketRegistry() {
-		this.packetTypes = new ArrayList<>();
-		registerPacket(PrimitivePacket.class);
+		this.packetTypes = PacketTypes.DEFAULT;
 	}
 	
 	/**
@@ -66,10 +121,9 @@ public class PacketRegistry {
 	 * @see #registerPacket(Class)
 	 */
 	public <T extends Packet> void registerPacket(Class<T> clazz, PacketConstructor<T> constructor) {
-		PacketType<T> fullType = new PacketType<>(clazz, constructor);
-		if (packetTypes.contains(fullType))
-			return;
-		packetTypes.add(fullType);
+		synchronized (this) {
+			packetTypes = packetTypes.with(new PacketType<>(clazz, constructor));
+		}
 	}
 	
 	/**
@@ -81,43 +135,111 @@ public class PacketRegistry {
 	 * @see #registerPacket(Class, PacketConstructor)
 	 */
 	public <T extends Packet> void registerPacket(Class<T> clazz) throws IllegalArgumentException {
+		Constructor<T> constructor;
 		try {
-			Constructor<T> constructor = clazz.getConstructor(DataInputStream.class);
-			registerPacket(clazz, in -> constructor.newInstance(in));
+			constructor = clazz.getConstructor(DataInputStream.class);
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Unable to get constructor for packet class!", e);
 		}
+		registerPacket(clazz, bindConstructor(clazz, constructor));
+	}
+	/**
+	 * Create a {@link PacketConstructor} that calls the constructor directly, like a lambda would,
+	 * so constructing a packet doesn't go through reflection <br>
+	 * Falls back to reflection if the class isn't public, or if it was loaded by a class loader this library can't see,
+	 * since the generated class resolves the packet class through this library's class loader
+	 * @param <T> The packet type
+	 * @param clazz The packet class
+	 * @param constructor The packet's constructor
+	 * @return The packet constructor
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Packet> PacketConstructor<T> bindConstructor(Class<T> clazz, Constructor<T> constructor) {
+		if (isVisible(clazz)) {
+			CallSite site = null;
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(PacketConstructor.class),
+						MethodType.methodType(Packet.class, DataInputStream.class), lookup.unreflectConstructor(constructor),
+						MethodType.methodType(clazz, DataInputStream.class));
+			} catch (ReflectiveOperationException | LambdaConversionException e) {
+				// Use reflection
+			}
+			if (site != null) {
+				try {
+					return (PacketConstructor<T>) site.getTarget().invoke();
+				} catch (RuntimeException | Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new IllegalArgumentException("Unable to bind constructor for packet class!", e);
+				}
+			}
+		}
+		try {
+			constructor.setAccessible(true);
+		} catch (RuntimeException e) {
+			// Only works if the class is accessible
+		}
+		return in -> constructor.newInstance(in);
+	}
+	/**
+	 * @return If the class resolves to the same class through this library's class loader
+	 */
+	private static boolean isVisible(Class<?> clazz) {
+		try {
+			return Class.forName(clazz.getName(), false, PacketRegistry.class.getClassLoader()) == clazz;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
 	}
 	
 	/**
-	 * Register all the packet types included in the registry
+	 * Register all the packet types included in the registry <br>
+	 * If this registry doesn't have any types that the other one is missing, the types are shared instead of copied,
+	 * until either registry registers another type
 	 * @param registry The packet types to include
 	 */
 	public void registerPackets(PacketRegistry registry) {
-		registry.packetTypes.forEach(packetType -> {
-			if (!packetTypes.contains(packetType))
-				packetTypes.add(packetType);
-		});
+		PacketTypes other = registry.packetTypes;
+		synchronized (this) {
+			packetTypes = packetTypes.with(other);
+		}
 	}
 	
+	/**
+	 * Get the id of the most specific registered type that the packet is an instance of <br>
+	 * The result is cached for each packet class, so this only searches the types once per class
+	 * @param packet The packet
+	 * @return The id
+	 * @throws IllegalArgumentException If none of the packet's types are registered
+	 */
 	int getPacketId(Packet packet) {
+		PacketTypes packetTypes = this.packetTypes;
+		Integer id = packetTypes.ids.get(packet.getClass());
+		if (id == null) {
+			id = findPacketId(packetTypes.types, packet.getClass());
+			packetTypes.ids.put(packet.getClass(), id);
+		}
+		if (id == -1)
+			throw new IllegalArgumentException("The packet type " + packet.getClass().getName() + " is not registered!");
+		return id;
+	}
+	private static int findPacketId(List<PacketType<? extends Packet>> packetTypes, Class<? extends Packet> packetClass) {
 		Class<? extends Packet> clazz = null;
 		int id = 0;
 		for (int i = 0; i < packetTypes.size(); i++) {
 			Class<? extends Packet> packetType = packetTypes.get(i).clazz;
-			if (packetType.isAssignableFrom(packet.getClass()) && (clazz == null || clazz.isAssignableFrom(packetType))) {
+			if (packetType.isAssignableFrom(packetClass) && (clazz == null || clazz.isAssignableFrom(packetType))) {
 				clazz = packetType;
 				id = i;
 			}
 		}
-		if (clazz == null)
-			throw new IllegalArgumentException("The packet type " + packet.getClass().getName() + " is not registered!");
-		return id;
+		return (clazz == null ? -1 : id);
 	}
 	
 	PacketConstructor<? extends Packet> getPacketType(int id) {
 		try {
-			return packetTypes.get(id).constructor;
+			return packetTypes.types.get(id).constructor;
 		} catch (IndexOutOfBoundsException e) {
 			return null;
 		}
@@ -0,0 +1,109 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The packets that are waiting for a response, keyed by their primitive id <br>
+ * Packet ids are sequential, so each entry goes in the slot for the low bits of its id, and the full id is
+ * compared on lookup, so a slot that was reused by a newer id isn't mistaken for an older one <br>
+ * Adding, finding, and removing an entry are lock-free and don't allocate. An entry whose slot is still taken,
+ * because an older packet is waiting for a long time, goes in a small overflow map instead
+ * @param <T> The type of the entries
+ */
+class ResponseTable<T extends ResponseTable.Entry> {
+	
+	/**
+	 * Something waiting for the response to a packet
+	 */
+	static class Entry {
+		final int id;
+		Entry(int id) {
+			this.id = id;
+		}
+	}
+	
+	private static final int CAPACITY = 256; // Must be a power of two
+	
+	private final AtomicReferenceArray<T> slots;
+	private final Map<Integer, T> overflow;
+	private final AtomicInteger overflowSize; // Checked before the map, which is usually empty
+	private final AtomicInteger size;
+	
+	ResponseTable() {
+		this.slots = new AtomicReferenceArray<>(CAPACITY);
+		this.overflow = new ConcurrentHashMap<>();
+		this.overflowSize = new AtomicInteger();
+		this.size = new AtomicInteger();
+	}
+	
+	/**
+	 * Add an entry, unless there are already too many
+	 * @param entry The entry, whose id isn't already in the table
+	 * @param max The most entries allowed, or -1 for no limit
+	 * @return If the entry was added
+	 */
+	boolean add(T entry, int max) {
+		if (size.incrementAndGet() > max && max != -1) {
+			size.decrementAndGet();
+			return false;
+		}
+		if (!slots.compareAndSet(entry.id & (CAPACITY - 1), null, entry)) {
+			overflowSize.incrementAndGet();
+			overflow.put(entry.id, entry);
+		}
+		return true;
+	}
+	/**
+	 * @param id The id of the packet
+	 * @return The entry waiting for the packet's response, or null
+	 */
+	T get(int id) {
+		T entry = slots.get(id & (CAPACITY - 1));
+		if (entry != null && entry.id == id)
+			return entry;
+		return (overflowSize.get() == 0 ? null : overflow.get(id));
+	}
+	/**
+	 * Remove an entry, if it is still in the table
+	 * @param entry The entry
+	 * @return If the entry was removed by this call
+	 */
+	boolean remove(T entry) {
+		if (slots.compareAndSet(entry.id & (CAPACITY - 1), entry, null)) {
+			size.decrementAndGet();
+			return true;
+		}
+		if (overflowSize.get() != 0 && overflow.remove(entry.id, entry)) {
+			overflowSize.decrementAndGet();
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * @return The number of entries
+	 */
+	int size() {
+		return size.get();
+	}
+	/**
+	 * @return A snapshot of the entries
+	 */
+	List<T> values() {
+		List<T> values = new ArrayList<>();
+		for (int i = 0; i < CAPACITY; i++) {
+			T entry = slots.get(i);
+			if (entry != null)
+				values.add(entry);
+		}
+		if (overflowSize.get() != 0)
+			values.addAll(overflow.values());
+		return values;
+	}
+	
+}
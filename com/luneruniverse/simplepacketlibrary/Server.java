@@ -2,26 +2,29 @@ package com.luneruniverse.simplepacketlibrary;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.ServerSocket;
 import java.net.SocketException;
 import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.TrustManagerFactory;
 
+import com.luneruniverse.simplepacketlibrary.accessors.NioServerAccess;
 import com.luneruniverse.simplepacketlibrary.accessors.RawServerAccess;
 import com.luneruniverse.simplepacketlibrary.accessors.ServerAccess;
 import com.luneruniverse.simplepacketlibrary.accessors.SocketAccess;
@@ -29,6 +32,7 @@ import com.luneruniverse.simplepacketlibrary.accessors.WebServerAccess;
 import com.luneruniverse.simplepacketlibrary.listeners.ConnectionListener;
 import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
 import com.luneruniverse.simplepacketlibrary.listeners.PacketListener;
+import com.luneruniverse.simplepacketlibrary.listeners.StreamListener;
 import com.luneruniverse.simplepacketlibrary.listeners.WaitState;
 import com.luneruniverse.simplepacketlibrary.packets.Packet;
 
@@ -74,15 +78,38 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 	private final int port;
 	private final Queue<ConnectionListener> connectionListeners;
 	private final Queue<PacketListener> packetListeners;
+	private final Queue<StreamListener> streamListeners;
 	private Thread thread;
 	private volatile boolean connectAllowed;
 	private Queue<ServerConnection> connections;
 	private final List<ErrorHandler<Server>> serverErrorHandlers;
 	private final List<ErrorHandler<ServerConnection>> connectionErrorHandlers;
+	private volatile Executor listenerExecutor;
+	private volatile DispatchMode dispatchMode;
+	private volatile Function<? super Packet, ?> dispatchKey;
+	private volatile boolean queuedWrites;
+	private volatile int aggregationWindow;
+	private volatile int aggregationBytes;
+	private volatile long lowWatermark;
+	private volatile long highWatermark;
+	private volatile int maxFrameSize;
+	private volatile long maxQueuedInboundBytes;
+	private volatile int maxReceivedStreams;
+	private volatile SlowConsumerPolicy slowConsumerPolicy;
+	private volatile long maxPendingBytes;
+	private volatile Function<? super Packet, ?> conflationKey; // Null to conflate by packet type
+	private volatile boolean compactFrames;
+	private volatile PacketCompression compression;
+	private volatile int compressionThreshold;
+	private final TimingWheel timingWheel;
+	private final AtomicInteger lastBroadcastId;
 	
 	private ServerAccess socket;
 	private boolean useWebSocket;
+	private WebSocketOptions webSocketOptions;
 	private SSLContext ssl;
+	private int eventLoopThreads;
+	private TransportOptions transportOptions;
 	
 	/**
 	 * Create a server <br>
@@ -95,10 +122,23 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 		this.port = port;
 		this.connectionListeners = new ConcurrentLinkedQueue<>();
 		this.packetListeners = new ConcurrentLinkedQueue<>();
+		this.streamListeners = new ConcurrentLinkedQueue<>();
 		this.connectAllowed = true;
 		this.connections = new ConcurrentLinkedQueue<>();
 		this.serverErrorHandlers = new ArrayList<>();
 		this.connectionErrorHandlers = new ArrayList<>();
+		this.listenerExecutor = Connection.DEFAULT_LISTENER_EXECUTOR;
+		this.dispatchMode = DispatchMode.SERIAL;
+		this.timingWheel = new TimingWheel("Server [" + port + "] Response Timeout");
+		this.lastBroadcastId = new AtomicInteger();
+		this.slowConsumerPolicy = SlowConsumerPolicy.DROP;
+		this.maxPendingBytes = -1;
+		this.lowWatermark = -1;
+		this.highWatermark = -1;
+		this.maxFrameSize = -1;
+		this.maxQueuedInboundBytes = -1;
+		this.maxReceivedStreams = 16;
+		this.transportOptions = new TransportOptions();
 		useWebSocket(false);
 	}
 	
@@ -124,6 +164,26 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 		this.useWebSocket = useWebSocket;
 		return this;
 	}
+	/**
+	 * Use a WebSocket rather than a normal Socket, with the specified options <br>
+	 * For example, the options can enable permessage-deflate, which browsers offer on their own, but a Java client must also enable
+	 * @param options The options, or null for the defaults
+	 * @return this
+	 * @see #useWebSocket(boolean)
+	 * @see #getWebSocketOptions()
+	 * @see Client#useWebSocket(WebSocketOptions)
+	 */
+	public Server useWebSocket(WebSocketOptions options) {
+		this.webSocketOptions = options;
+		return useWebSocket(true);
+	}
+	/**
+	 * @return The options for the WebSocket mode, or null for the defaults
+	 * @see #useWebSocket(WebSocketOptions)
+	 */
+	public WebSocketOptions getWebSocketOptions() {
+		return webSocketOptions;
+	}
 	
 	/**
 	 * @return If this uses a WebSocket
@@ -159,6 +219,52 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 		return this.ssl != null;
 	}
 	
+	/**
+	 * Set the options for the server's socket and the accepted connections, such as TCP_NODELAY and the accept backlog <br>
+	 * This takes effect the next time the server is started
+	 * @param transportOptions The options
+	 * @return this
+	 * @see #getTransportOptions()
+	 * @see Client#setTransportOptions(TransportOptions)
+	 */
+	public Server setTransportOptions(TransportOptions transportOptions) {
+		if (transportOptions == null)
+			throw new IllegalArgumentException("The options cannot be null!");
+		this.transportOptions = transportOptions;
+		return this;
+	}
+	/**
+	 * @return The options for the server's socket and the accepted connections
+	 * @see #setTransportOptions(TransportOptions)
+	 */
+	public TransportOptions getTransportOptions() {
+		return transportOptions;
+	}
+	
+	/**
+	 * <strong>ONLY WORKS WHEN NOT IN WEBSOCKET MODE</strong> <br>
+	 * Handle all the connections with a fixed number of threads using non-blocking sockets,
+	 * rather than with a thread per connection <br>
+	 * Packet listeners dispatched with {@link DispatchMode#INLINE} run on these threads, so they must return quickly <br>
+	 * This takes effect the next time the server is started
+	 * @param eventLoopThreads The number of threads, or 0 to use a thread per connection
+	 * @return this
+	 * @see #getEventLoopThreads()
+	 */
+	public Server setEventLoopThreads(int eventLoopThreads) {
+		if (eventLoopThreads < 0)
+			throw new IllegalArgumentException("The number of event loop threads can't be negative!");
+		this.eventLoopThreads = eventLoopThreads;
+		return this;
+	}
+	/**
+	 * @return The number of threads that handle the connections, or 0 if each connection has its own thread
+	 * @see #setEventLoopThreads(int)
+	 */
+	public int getEventLoopThreads() {
+		return eventLoopThreads;
+	}
+	
 	/**
 	 * The listener is called when a {@link Client} connects <br>
 	 * Calling this twice will cause the listener to be called twice
@@ -206,6 +312,374 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 		return packetListeners.remove(listener);
 	}
 	
+	/**
+	 * The listener is called when a stream is received <br>
+	 * Calling this twice will cause the listener to be called twice
+	 * @param listener The listener to add
+	 * @return this
+	 * @see #removeStreamListener(StreamListener)
+	 * @see Connection#sendStream(Packet)
+	 */
+	public Server addStreamListener(StreamListener listener) {
+		streamListeners.add(listener);
+		return this;
+	}
+	
+	/**
+	 * The listener will stop being called <br>
+	 * If {@link #addStreamListener(StreamListener)} was called twice, it will still be called once
+	 * @param listener The listener to remove
+	 * @return If the listener was registered
+	 * @see #addStreamListener(StreamListener)
+	 */
+	public boolean removeStreamListener(StreamListener listener) {
+		return streamListeners.remove(listener);
+	}
+	
+	/**
+	 * Set the executor that runs the {@link ConnectionListener}s and the {@link PacketListener}s <br>
+	 * The executor is automatically applied to already active connections
+	 * @param listenerExecutor The executor
+	 * @return this
+	 * @see Connection#setListenerExecutor(Executor)
+	 * @see #getListenerExecutor()
+	 */
+	public Server setListenerExecutor(Executor listenerExecutor) {
+		if (listenerExecutor == null)
+			throw new IllegalArgumentException("The executor cannot be null!");
+		this.listenerExecutor = listenerExecutor;
+		for (ServerConnection conn : connections)
+			conn.setListenerExecutor(listenerExecutor);
+		return this;
+	}
+	
+	/**
+	 * Set how each connection hands received packets to the packet listeners <br>
+	 * This is automatically applied to already active connections
+	 * @param dispatchMode The mode, which can't be {@link DispatchMode#KEYED}, since that requires a key
+	 * @return this
+	 * @see #setDispatchMode(DispatchMode, Function)
+	 */
+	public Server setDispatchMode(DispatchMode dispatchMode) {
+		return setDispatchMode(dispatchMode, null);
+	}
+	/**
+	 * Set how each connection hands received packets to the packet listeners <br>
+	 * This is automatically applied to already active connections
+	 * @param dispatchMode The mode
+	 * @param key Gets the key of a packet for {@link DispatchMode#KEYED}, or null for the other modes
+	 * @return this
+	 * @see Connection#setDispatchMode(DispatchMode, Function)
+	 * @see #getDispatchMode()
+	 * @see #getDispatchKey()
+	 */
+	public Server setDispatchMode(DispatchMode dispatchMode, Function<? super Packet, ?> key) {
+		if (dispatchMode == null)
+			throw new IllegalArgumentException("The dispatch mode cannot be null!");
+		if (dispatchMode == DispatchMode.KEYED && key == null)
+			throw new IllegalArgumentException("Keyed dispatch requires a key!");
+		this.dispatchMode = dispatchMode;
+		this.dispatchKey = key;
+		for (ServerConnection conn : connections)
+			conn.setDispatchMode(dispatchMode, key);
+		return this;
+	}
+	/**
+	 * @return How each connection hands received packets to the packet listeners
+	 * @see #setDispatchMode(DispatchMode, Function)
+	 */
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+	/**
+	 * @return What gets the key of a packet for {@link DispatchMode#KEYED}, or null
+	 * @see #setDispatchMode(DispatchMode, Function)
+	 */
+	public Function<? super Packet, ?> getDispatchKey() {
+		return dispatchKey;
+	}
+	/**
+	 * Get the executor that runs the {@link ConnectionListener}s and the {@link PacketListener}s
+	 * @return The executor
+	 * @see #setListenerExecutor(Executor)
+	 */
+	public Executor getListenerExecutor() {
+		return listenerExecutor;
+	}
+	
+	/**
+	 * Set whether packets are written by a single writer from a queue, rather than by the thread sending them <br>
+	 * This is automatically applied to already active connections
+	 * @param queuedWrites If packets should be queued
+	 * @return this
+	 * @see Connection#setQueuedWrites(boolean)
+	 * @see #isQueuedWrites()
+	 */
+	public Server setQueuedWrites(boolean queuedWrites) {
+		this.queuedWrites = queuedWrites;
+		for (ServerConnection conn : connections)
+			conn.setQueuedWrites(queuedWrites);
+		return this;
+	}
+	/**
+	 * @return If packets are written by a single writer from a queue
+	 * @see #setQueuedWrites(boolean)
+	 */
+	public boolean isQueuedWrites() {
+		return queuedWrites;
+	}
+	
+	/**
+	 * Hold back sent packets for a short window, so the packets sent within it are written together <br>
+	 * WebSocket clients using the JavaScript variant can't read the aggregated messages, so don't use this if they can connect,
+	 * and the byte budget must fit within the clients' frame size limit <br>
+	 * This is automatically applied to already active connections
+	 * @param windowMicros The window in microseconds, or 0 to disable aggregation
+	 * @param maxBytes The byte budget, which is also the most that is written at once
+	 * @return this
+	 * @see Connection#setAggregation(int, int)
+	 * @see #getAggregationWindow()
+	 * @see #getAggregationBytes()
+	 */
+	public Server setAggregation(int windowMicros, int maxBytes) {
+		if (windowMicros < 0)
+			throw new IllegalArgumentException("The window cannot be negative!");
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("The byte budget must be positive!");
+		this.aggregationWindow = windowMicros;
+		this.aggregationBytes = maxBytes;
+		for (ServerConnection conn : connections)
+			conn.setAggregation(windowMicros, maxBytes);
+		return this;
+	}
+	/**
+	 * @return The window in microseconds, or 0 if aggregation is disabled
+	 * @see #setAggregation(int, int)
+	 */
+	public int getAggregationWindow() {
+		return aggregationWindow;
+	}
+	/**
+	 * @return The most bytes that are held back before being written
+	 * @see #setAggregation(int, int)
+	 */
+	public int getAggregationBytes() {
+		return aggregationBytes;
+	}
+	
+	/**
+	 * Set the watermarks for the pending bytes of each connection <br>
+	 * This is automatically applied to already active connections
+	 * @param lowWatermark The low watermark in bytes
+	 * @param highWatermark The high watermark in bytes, or -1 to disable the watermarks
+	 * @return this
+	 * @see Connection#setWriteBufferWatermarks(long, long)
+	 * @see #getLowWatermark()
+	 * @see #getHighWatermark()
+	 */
+	public Server setWriteBufferWatermarks(long lowWatermark, long highWatermark) {
+		if (highWatermark != -1 && (lowWatermark < 0 || lowWatermark > highWatermark))
+			throw new IllegalArgumentException("The low watermark must be between 0 and the high watermark!");
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		for (ServerConnection conn : connections)
+			conn.setWriteBufferWatermarks(lowWatermark, highWatermark);
+		return this;
+	}
+	/**
+	 * @return The low watermark in bytes
+	 * @see #setWriteBufferWatermarks(long, long)
+	 */
+	public long getLowWatermark() {
+		return lowWatermark;
+	}
+	/**
+	 * @return The high watermark in bytes, or -1 if the watermarks are disabled
+	 * @see #setWriteBufferWatermarks(long, long)
+	 */
+	public long getHighWatermark() {
+		return highWatermark;
+	}
+	
+	/**
+	 * Limit the memory that each connection's received packets can use <br>
+	 * This is automatically applied to already active connections
+	 * @param maxFrameSize The largest payload that is accepted, in bytes, or -1 for no limit
+	 * @param maxQueuedBytes The most payload bytes that can wait for the packet listeners, or -1 for no limit
+	 * @return this
+	 * @see Connection#setInboundLimits(int, long)
+	 * @see #getMaxFrameSize()
+	 * @see #getMaxQueuedInboundBytes()
+	 */
+	public Server setInboundLimits(int maxFrameSize, long maxQueuedBytes) {
+		if (maxFrameSize < -1)
+			throw new IllegalArgumentException("The maximum frame size must be -1 or more!");
+		if (maxQueuedBytes < -1)
+			throw new IllegalArgumentException("The maximum queued bytes must be -1 or more!");
+		this.maxFrameSize = maxFrameSize;
+		this.maxQueuedInboundBytes = maxQueuedBytes;
+		for (ServerConnection conn : connections)
+			conn.setInboundLimits(maxFrameSize, maxQueuedBytes);
+		return this;
+	}
+	/**
+	 * @return The largest payload that is accepted, in bytes, or -1 if there is no limit
+	 * @see #setInboundLimits(int, long)
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	/**
+	 * @return The most payload bytes that can wait for the packet listeners, or -1 if there is no limit
+	 * @see #setInboundLimits(int, long)
+	 */
+	public long getMaxQueuedInboundBytes() {
+		return maxQueuedInboundBytes;
+	}
+	/**
+	 * Limit how many received streams each connection can handle at once <br>
+	 * This is automatically applied to already active connections
+	 * @param maxReceivedStreams The most streams, or -1 for no limit
+	 * @return this
+	 * @see Connection#setMaxReceivedStreams(int)
+	 * @see #getMaxReceivedStreams()
+	 */
+	public Server setMaxReceivedStreams(int maxReceivedStreams) {
+		if (maxReceivedStreams < -1)
+			throw new IllegalArgumentException("The maximum streams must be -1 or more!");
+		this.maxReceivedStreams = maxReceivedStreams;
+		for (ServerConnection conn : connections)
+			conn.setMaxReceivedStreams(maxReceivedStreams);
+		return this;
+	}
+	/**
+	 * @return The most received streams that each connection can handle at once, or -1 if there is no limit
+	 * @see #setMaxReceivedStreams(int)
+	 */
+	public int getMaxReceivedStreams() {
+		return maxReceivedStreams;
+	}
+	
+	/**
+	 * Set what happens when broadcasting to a connection that has more than the limit of pending bytes <br>
+	 * Broadcasts never wait for a connection's packets to be written, so without a limit,
+	 * the packets for a slow connection can build up indefinitely
+	 * @param policy The policy
+	 * @param maxPendingBytes The limit, or -1 for no limit
+	 * @return this
+	 * @see Connection#getPendingBytes()
+	 * @see #setSlowConsumerPolicy(SlowConsumerPolicy, long, Function)
+	 * @see #getSlowConsumerPolicy()
+	 * @see #getMaxPendingBytes()
+	 */
+	public Server setSlowConsumerPolicy(SlowConsumerPolicy policy, long maxPendingBytes) {
+		return setSlowConsumerPolicy(policy, maxPendingBytes, null);
+	}
+	/**
+	 * Set what happens when broadcasting to a connection that has more than the limit of pending bytes <br>
+	 * With {@link SlowConsumerPolicy#CONFLATE}, only the newest broadcast with each key is kept for a slow connection
+	 * @param policy The policy
+	 * @param maxPendingBytes The limit, or -1 for no limit
+	 * @param conflationKey Gets the key of a broadcast, such as the id of the entity whose state it contains,
+	 * which can return null for broadcasts that must not replace each other, or null to use the packet type as the key
+	 * @return this
+	 * @see #getConflationKey()
+	 */
+	public Server setSlowConsumerPolicy(SlowConsumerPolicy policy, long maxPendingBytes, Function<? super Packet, ?> conflationKey) {
+		if (policy == null)
+			throw new IllegalArgumentException("The policy cannot be null!");
+		if (maxPendingBytes < -1)
+			throw new IllegalArgumentException("The limit must be -1 or more!");
+		this.slowConsumerPolicy = policy;
+		this.maxPendingBytes = maxPendingBytes;
+		this.conflationKey = conflationKey;
+		return this;
+	}
+	/**
+	 * @return What happens when broadcasting to a connection that has too many pending bytes
+	 * @see #setSlowConsumerPolicy(SlowConsumerPolicy, long)
+	 */
+	public SlowConsumerPolicy getSlowConsumerPolicy() {
+		return slowConsumerPolicy;
+	}
+	/**
+	 * @return The limit of pending bytes before the {@link SlowConsumerPolicy} is applied, or -1 for no limit
+	 * @see #setSlowConsumerPolicy(SlowConsumerPolicy, long)
+	 */
+	public long getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+	/**
+	 * @return What gets the key of a broadcast for {@link SlowConsumerPolicy#CONFLATE}, or null if the packet type is used
+	 * @see #setSlowConsumerPolicy(SlowConsumerPolicy, long, Function)
+	 */
+	public Function<? super Packet, ?> getConflationKey() {
+		return conflationKey;
+	}
+	
+	/**
+	 * Allow clients that ask for it to switch to compact frames, which use varints in the header instead of 16 fixed bytes <br>
+	 * Clients that haven't asked within a second of connecting keep the fixed frames <br>
+	 * This only applies to connections that are accepted afterwards
+	 * @param compactFrames If compact frames should be accepted
+	 * @return this
+	 * @see Client#setCompactFrames(boolean)
+	 * @see #isCompactFrames()
+	 */
+	public Server setCompactFrames(boolean compactFrames) {
+		this.compactFrames = compactFrames;
+		return this;
+	}
+	/**
+	 * @return If clients can switch to compact frames
+	 * @see #setCompactFrames(boolean)
+	 */
+	public boolean isCompactFrames() {
+		return compactFrames;
+	}
+	
+	/**
+	 * Compress packets larger than the threshold, for clients that use compact frames and the same compression <br>
+	 * Each connection reuses its own compressor, and broadcasts are compressed once for all of them <br>
+	 * This only applies to connections that are accepted afterwards <br>
+	 * Unless a frame size limit is set, a received packet may only decompress to 1032 times its compressed size, which is deflate's highest ratio
+	 * @param compression The compression, or null to disable compression
+	 * @param threshold The smallest body, in bytes, that is compressed
+	 * @return this
+	 * @see #setCompactFrames(boolean)
+	 * @see Client#setCompression(PacketCompression, int)
+	 * @see Connection#isCompressing()
+	 */
+	public Server setCompression(PacketCompression compression, int threshold) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("The threshold cannot be negative!");
+		this.compression = compression;
+		this.compressionThreshold = threshold;
+		return this;
+	}
+	/**
+	 * @return The compression, or null if compression is disabled
+	 * @see #setCompression(PacketCompression, int)
+	 */
+	public PacketCompression getCompression() {
+		return compression;
+	}
+	/**
+	 * @return The smallest body, in bytes, that is compressed
+	 * @see #setCompression(PacketCompression, int)
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * The response timeouts of all the connections share this wheel
+	 * @return The timing wheel
+	 */
+	TimingWheel getTimingWheel() {
+		return timingWheel;
+	}
+	
 	/**
 	 * Set whether or not the server will accept new connections <br>
 	 * If false, connection attempts will be automatically closed <br>
@@ -237,18 +711,35 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 		if (isAlive())
 			return this;
 		
-		socket = (useWebSocket ? new WebServerAccess(this, ssl) : new RawServerAccess(new ServerSocket(port)));
+		if (useWebSocket)
+			socket = new WebServerAccess(this, ssl, webSocketOptions, transportOptions);
+		else if (eventLoopThreads > 0)
+			socket = new NioServerAccess(this, eventLoopThreads, transportOptions);
+		else
+			socket = new RawServerAccess(port, transportOptions);
 		thread = new Thread(() -> {
 			while (true) {
 				try {
 					SocketAccess newSocket = socket.accept();
 					if (!connectAllowed)
 						newSocket.close();
-					ServerConnection newConn = new ServerConnection(this, packetListeners, connectionErrorHandlers, newSocket) {
+					ServerConnection newConn = new ServerConnection(this, packetListeners, streamListeners, connectionErrorHandlers, newSocket) {
 						protected void onClose() {
 							connections.remove(this);
 						}
 					};
+					newConn.setListenerExecutor(listenerExecutor);
+					newConn.setDispatchMode(dispatchMode, dispatchKey);
+					newConn.setQueuedWrites(queuedWrites);
+					if (aggregationWindow > 0)
+						newConn.setAggregation(aggregationWindow, aggregationBytes);
+					if (highWatermark != -1)
+						newConn.setWriteBufferWatermarks(lowWatermark, highWatermark);
+					newConn.setInboundLimits(maxFrameSize, maxQueuedInboundBytes);
+					newConn.setMaxReceivedStreams(maxReceivedStreams);
+					newConn.acceptCompactFrames = compactFrames;
+					newConn.compression = compression;
+					newConn.compressionThreshold = compressionThreshold;
 					connections.add(newConn);
 					invokeConnectionListeners(newConn, connectionListeners);
 					newConn.start(newSocket);
@@ -268,29 +759,32 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 		return this;
 	}
 	private void invokeConnectionListeners(ServerConnection conn, Collection<ConnectionListener> listeners) throws InterruptedException {
-		Map<Thread, WaitState> threads = new HashMap<>();
-		for (ConnectionListener listener : listeners) {
-			WaitState wait = new WaitState();
-			Thread thread = new Thread(() -> {
-				try {
-					listener.onConnect(conn, wait);
-				} catch (Exception e) {
-					onError(e, this, ErrorHandler.Error.INSIDE_CONNECTION_LISTENER);
-				}
-			}, "Connection Listener");
-			thread.start();
-			threads.put(thread, wait);
-		}
-		while (!threads.isEmpty()) {
-			if (Thread.interrupted())
-				throw new InterruptedException();
-			threads.entrySet().removeIf(entry -> !(entry.getKey().isAlive() && entry.getValue().isWaiting()));
-			Thread.sleep(1);
+		ConnectionListener[] toInvoke = listeners.toArray(new ConnectionListener[0]);
+		CountDownLatch latch = new CountDownLatch(toInvoke.length);
+		for (ConnectionListener listener : toInvoke) {
+			WaitState wait = new WaitState(latch);
+			try {
+				listenerExecutor.execute(() -> {
+					try {
+						listener.onConnect(conn, wait);
+					} catch (Exception e) {
+						onError(e, this, ErrorHandler.Error.INSIDE_CONNECTION_LISTENER);
+					} finally {
+						wait.dontWait();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				onError(e, this, ErrorHandler.Error.INSIDE_CONNECTION_LISTENER);
+				wait.dontWait();
+			}
 		}
+		latch.await();
 	}
 	
 	/**
 	 * Send a {@link Packet} to all connections and call the {@link PacketListener} when a response is received <br>
+	 * The packet is only encoded once, and the same bytes are sent to every connection <br>
+	 * This doesn't wait for the packet to be written, and connections that are too slow are handled by the {@link SlowConsumerPolicy} <br>
 	 * If there is an exception, the packet will continue being sent to the other connections before being re-thrown
 	 * @param packet The packet to send
 	 * @param response The listener to call on a response
@@ -302,19 +796,147 @@ public class Server extends PacketRegistry implements ErrorHandler<Server> {
 		List<IOException> exceptions = new ArrayList<>();
 		Set<ServerConnection> targets = new HashSet<>(connections);
 		targets.removeAll(Arrays.asList(excluded));
+		if (targets.isEmpty())
+			return;
+		
+		int packetType = getPacketId(packet);
+		SlowConsumerPolicy slowConsumerPolicy = this.slowConsumerPolicy;
+		long maxPendingBytes = this.maxPendingBytes;
+		Object conflationKey = null; // Broadcasts without a key aren't conflated
+		if (slowConsumerPolicy == SlowConsumerPolicy.CONFLATE && maxPendingBytes != -1 && response == null) {
+			Function<? super Packet, ?> key = this.conflationKey;
+			conflationKey = (key == null ? Integer.valueOf(packetType) : key.apply(packet));
+		}
+		
+		PacketBuffer buf = PacketBuffer.acquire();
+		try {
+			packet.write(buf.getOutput());
+		} catch (IOException | RuntimeException e) {
+			buf.release();
+			throw e;
+		}
+		int id = nextBroadcastId();
+		int bodySize = buf.bodySize();
+		buf.writeHeader(id, -1, packetType, false);
+		
+		// The other encodings are only created if a connection needs them
+		BroadcastFrame fixed = new BroadcastFrame(buf);
+		BroadcastFrame compact = null;
+		BroadcastFrame compressed = null;
+		PacketCompression compressedWith = null; // Any connection with the same compression can decompress the packet
 		for (ServerConnection conn : targets) {
 			try {
-				conn.sendPacket(packet, response);
+				if (conn.getPacketId(packet) != packetType || conn.isNegotiatingFrames()) {
+					conn.sendBroadcastPacket(packet, response); // The connection registered its own packet types, or the header isn't known yet
+					continue;
+				}
+				if (conn.socket.isClosed())
+					throw new IOException("The connection isn't alive!");
+				BroadcastFrame frame = fixed;
+				if (conn.isCompactFrames()) {
+					if (conn.isCompressing() && bodySize >= conn.compressionThreshold) {
+						if (compressedWith == null) {
+							PacketBuffer compressedBuf = conn.compressBody(buf);
+							compressedWith = conn.compression;
+							if (compressedBuf != null) {
+								compressedBuf.writeHeader(id, -1, packetType, true);
+								compressed = new BroadcastFrame(compressedBuf);
+							}
+						} else if (compressedWith != conn.compression) {
+							conn.sendBroadcastPacket(packet, response); // The connection was accepted with a different compression
+							continue;
+						}
+						frame = compressed;
+					}
+					if (frame == null || frame == fixed) {
+						if (compact == null) {
+							PacketBuffer compactBuf = buf.copyBody();
+							compactBuf.writeHeader(id, -1, packetType, true);
+							compact = new BroadcastFrame(compactBuf);
+						}
+						frame = compact;
+					}
+				}
+				// Conflated broadcasts are sent first once the connection catches up, so newer ones can't overtake them
+				if (maxPendingBytes != -1 && (!conn.flushConflatedPackets() || conn.getPendingBytes() > maxPendingBytes)) {
+					handleSlowConsumer(conn, slowConsumerPolicy, conflationKey, frame.buf, maxPendingBytes);
+					continue;
+				}
+				if (response == null && !conn.isQueuedWrites() && !conn.isAggregating() && conn.socket.queuesWrites())
+					frame.direct.add(conn.socket);
+				else {
+					frame.buf.retain(1);
+					conn.queueEncoded(frame.buf, id, response);
+				}
 			} catch (IOException e) {
 				exceptions.add(e);
 			}
 		}
+		for (BroadcastFrame frame : new BroadcastFrame[] {fixed, compact, compressed}) {
+			if (frame == null)
+				continue;
+			try {
+				if (!frame.direct.isEmpty())
+					socket.broadcastPacket(frame.buf.toByteBuffer(), frame.direct);
+			} catch (IOException e) {
+				exceptions.add(e);
+			} finally {
+				frame.buf.release();
+			}
+		}
+		for (ServerConnection conn : targets)
+			conn.checkWritability();
+		
 		if (!exceptions.isEmpty()) {
 			IOException e = new IOException("Error broadcasting packet");
 			exceptions.forEach(e::addSuppressed);
 			throw e;
 		}
 	}
+	/**
+	 * One encoding of a broadcast, and the connections that it is sent to with a single send
+	 */
+	private static class BroadcastFrame {
+		private final PacketBuffer buf;
+		private final List<SocketAccess> direct; // Don't block when sending, so they can share a single send
+		private BroadcastFrame(PacketBuffer buf) {
+			this.buf = buf;
+			this.direct = new ArrayList<>();
+		}
+	}
+	/**
+	 * Apply the policy to a connection that has too many pending bytes, instead of sending the broadcast
+	 * @param conflationKey The broadcast's key, or null if it can't be conflated
+	 * @param buf The broadcast, encoded for the connection
+	 */
+	private void handleSlowConsumer(ServerConnection conn, SlowConsumerPolicy policy, Object conflationKey, PacketBuffer buf, long maxPendingBytes) {
+		switch (policy) {
+			case DISCONNECT:
+				try {
+					conn.close();
+				} catch (IOException | InterruptedException e) {
+					conn.onError(e, conn, ErrorHandler.Error.CLOSING_CONNECTION);
+				}
+				break;
+			case CONFLATE:
+				if (conflationKey != null)
+					conn.conflate(conflationKey, buf, maxPendingBytes);
+				break;
+			default:
+				break;
+		}
+	}
+	/**
+	 * Broadcasts share an id between all the connections, so they use the negative ids, which a connection never uses for its own packets
+	 * @return The id for the next broadcast
+	 */
+	private int nextBroadcastId() {
+		int id;
+		do {
+			id = lastBroadcastId.getAndIncrement() | Integer.MIN_VALUE;
+		} while (id == -1); // -1 means no response
+		return id;
+	}
 	/**
 	 * Send a {@link Packet} to all connections without a response listener <br>
 	 * If there is an exception, the packet will continue being sent to the other connections before being re-thrown
@@ -7,6 +7,7 @@ import java.util.Queue;
 import com.luneruniverse.simplepacketlibrary.accessors.SocketAccess;
 import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
 import com.luneruniverse.simplepacketlibrary.listeners.PacketListener;
+import com.luneruniverse.simplepacketlibrary.listeners.StreamListener;
 
 /**
  * The server side connection itself <br>
@@ -17,8 +18,8 @@ public class ServerConnection extends Connection {
 	private final Server server;
 	private final List<ErrorHandler<ServerConnection>> errorHandlers;
 	
-	ServerConnection(Server server, Queue<PacketListener> packetListeners, List<ErrorHandler<ServerConnection>> errorHandlers, SocketAccess socket) throws InterruptedException {
-		super(packetListeners);
+	ServerConnection(Server server, Queue<PacketListener> packetListeners, Queue<StreamListener> streamListeners, List<ErrorHandler<ServerConnection>> errorHandlers, SocketAccess socket) throws InterruptedException {
+		super(packetListeners, streamListeners, server.getTimingWheel());
 		this.server = server;
 		this.errorHandlers = new ArrayList<>(errorHandlers);
 		this.socket = socket;
@@ -0,0 +1,27 @@
+package com.luneruniverse.simplepacketlibrary;
+
+/**
+ * What a {@link Server} does when broadcasting to a connection that has too many pending bytes
+ * @see Server#setSlowConsumerPolicy(SlowConsumerPolicy, long)
+ * @see Connection#getPendingBytes()
+ */
+public enum SlowConsumerPolicy {
+	/**
+	 * The connection doesn't receive the broadcast
+	 * @see SlowConsumerPolicy
+	 */
+	DROP,
+	/**
+	 * The connection is closed
+	 * @see SlowConsumerPolicy
+	 */
+	DISCONNECT,
+	/**
+	 * The broadcast is held back until the connection catches up, and replaces the held back broadcast with the same key,
+	 * so the connection only receives the newest broadcast for each key <br>
+	 * The key is the packet type unless a key is specified, and broadcasts that expect a response or have a null key are dropped
+	 * @see SlowConsumerPolicy
+	 * @see Server#setSlowConsumerPolicy(SlowConsumerPolicy, long, java.util.function.Function)
+	 */
+	CONFLATE
+}
@@ -0,0 +1,192 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import com.luneruniverse.simplepacketlibrary.accessors.InboundLimitException;
+
+/**
+ * The receiving side of a stream, which is filled in by the connection's reading thread as the chunks arrive <br>
+ * Each chunk is acknowledged once it has been read, which lets the sender continue,
+ * so at most {@link StreamOutput#WINDOW} bytes are buffered, which count toward the connection's queued inbound bytes
+ * @see com.luneruniverse.simplepacketlibrary.listeners.StreamListener
+ */
+class StreamInput extends InputStream {
+	
+	private final Connection connection;
+	private final int id;
+	private final Queue<byte[]> chunks;
+	private long queuedBytes;
+	private byte[] current;
+	private int pos;
+	private boolean finished; // The sender ended the stream
+	private IOException failure;
+	private boolean closed;
+	
+	StreamInput(Connection connection, int id) {
+		this.connection = connection;
+		this.id = id;
+		this.chunks = new ArrayDeque<>();
+	}
+	
+	/**
+	 * @return The id of the stream, which is also the id of its header packet
+	 */
+	int getId() {
+		return id;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF);
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		int read;
+		int consumed = 0; // A chunk that was finished, to acknowledge
+		synchronized (this) {
+			if (!next())
+				return -1;
+			read = Math.min(len, current.length - pos);
+			System.arraycopy(current, pos, b, off, read);
+			pos += read;
+			if (pos == current.length) {
+				consumed = current.length;
+				queuedBytes -= consumed;
+				current = null;
+			}
+		}
+		if (consumed != 0)
+			connection.acknowledgeStream(id, consumed); // Outside the lock, so the reading thread can keep adding chunks
+		return read;
+	}
+	/**
+	 * Write the rest of the stream to a channel, straight from the received chunks
+	 * @param channel The channel
+	 * @return The number of bytes written
+	 * @throws IOException If there was an error receiving the stream or writing to the channel
+	 * @see Connection#receiveFile(InputStream, java.nio.file.Path)
+	 */
+	long transferTo(WritableByteChannel channel) throws IOException {
+		long total = 0;
+		while (true) {
+			byte[] chunk;
+			int offset;
+			synchronized (this) {
+				if (!next())
+					return total;
+				chunk = current;
+				offset = pos;
+				queuedBytes -= chunk.length;
+				current = null;
+			}
+			ByteBuffer buf = ByteBuffer.wrap(chunk, offset, chunk.length - offset);
+			try {
+				while (buf.hasRemaining())
+					channel.write(buf);
+			} finally {
+				connection.acknowledgeStream(id, chunk.length);
+			}
+			total += chunk.length - offset;
+		}
+	}
+	@Override
+	public synchronized int available() throws IOException {
+		return (current == null ? 0 : current.length - pos);
+	}
+	/**
+	 * Wait for the next bytes
+	 * @return If there are bytes in {@link #current}, or false if the stream has ended
+	 */
+	private boolean next() throws IOException {
+		while (current == null) {
+			if (closed)
+				throw new IOException("The stream is closed!");
+			current = chunks.poll();
+			pos = 0;
+			if (current != null)
+				break;
+			if (failure != null)
+				throw failure;
+			if (finished)
+				return false;
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the stream");
+			}
+		}
+		return true;
+	}
+	/**
+	 * Stop receiving the stream, and cancel it if the sender hasn't ended it
+	 */
+	@Override
+	public void close() {
+		long discarded;
+		boolean cancel;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			chunks.clear();
+			current = null;
+			discarded = queuedBytes;
+			queuedBytes = 0;
+			notifyAll();
+			cancel = (!finished && failure == null);
+		}
+		connection.streamChunksDiscarded(discarded);
+		if (cancel)
+			connection.cancelReceivedStream(this);
+	}
+	
+	/**
+	 * Add a chunk from the reading thread
+	 * @param data The array containing the chunk
+	 * @param offset Where the chunk starts
+	 * @param length The length of the chunk
+	 * @throws InboundLimitException If the sender didn't wait for the chunks to be acknowledged
+	 */
+	synchronized void chunkReceived(byte[] data, int offset, int length) throws InboundLimitException {
+		if (closed || length == 0)
+			return;
+		if (queuedBytes + length > StreamOutput.WINDOW)
+			throw new InboundLimitException("Received more of a stream than was acknowledged!");
+		connection.streamChunkQueued(length);
+		queuedBytes += length;
+		byte[] chunk = new byte[length];
+		System.arraycopy(data, offset, chunk, 0, length);
+		chunks.add(chunk);
+		notifyAll();
+	}
+	/**
+	 * Called when the sender ends the stream
+	 */
+	synchronized void finish() {
+		finished = true;
+		notifyAll();
+	}
+	/**
+	 * Called when the stream can't be finished, which is thrown once the received chunks have been read
+	 * @param cause The exception
+	 */
+	synchronized void fail(IOException cause) {
+		if (failure == null)
+			failure = cause;
+		notifyAll();
+	}
+	
+}
@@ -0,0 +1,193 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import com.luneruniverse.simplepacketlibrary.accessors.PacketData;
+
+/**
+ * The sending side of a stream, which splits the body into chunks <br>
+ * At most {@link #WINDOW} bytes can be sent before the receiver has read them,
+ * so a stream uses a constant amount of memory on both sides, however long it is
+ * @see Connection#sendStream(com.luneruniverse.simplepacketlibrary.packets.Packet)
+ */
+class StreamOutput extends OutputStream {
+	
+	/**
+	 * The largest chunk that is sent
+	 */
+	static final int CHUNK_SIZE = 32 * 1024;
+	/**
+	 * The most bytes that can be sent before the receiver acknowledges them
+	 */
+	static final int WINDOW = 8 * CHUNK_SIZE;
+	
+	private final Connection connection;
+	private final int id;
+	private final byte[] chunk;
+	private int count;
+	private final Object creditLock; // Separate from the stream, so acknowledgements never wait for a chunk to be sent
+	private long credit; // Guarded by creditLock
+	private volatile boolean cancelled;
+	private volatile boolean ended; // The connection closed
+	private boolean closed;
+	
+	StreamOutput(Connection connection, int id) {
+		this.connection = connection;
+		this.id = id;
+		this.chunk = new byte[CHUNK_SIZE];
+		this.creditLock = new Object();
+		this.credit = WINDOW;
+	}
+	
+	/**
+	 * @return The id of the stream, which is also the id of its header packet
+	 */
+	int getId() {
+		return id;
+	}
+	
+	@Override
+	public synchronized void write(int b) throws IOException {
+		ensureOpen();
+		chunk[count++] = (byte) b;
+		if (count == chunk.length)
+			sendChunk();
+	}
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+		while (len > 0) {
+			int copied = Math.min(len, chunk.length - count);
+			System.arraycopy(b, off, chunk, count, copied);
+			count += copied;
+			off += copied;
+			len -= copied;
+			if (count == chunk.length)
+				sendChunk();
+		}
+	}
+	/**
+	 * Send the bytes that have been written so far as a chunk, even if it isn't full
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		ensureOpen();
+		if (count > 0)
+			sendChunk();
+	}
+	/**
+	 * Send the remaining bytes, and end the stream <br>
+	 * If the receiver cancelled the stream, it is only discarded
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		if (cancelled) {
+			closed = true;
+			connection.removeSentStream(this);
+			return;
+		}
+		try {
+			flush();
+			connection.sendControlPacket(PacketData.STREAM_END, id, new byte[0], 0);
+		} finally {
+			closed = true;
+			connection.removeSentStream(this);
+		}
+	}
+	
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new IOException("The stream is closed!");
+	}
+	/**
+	 * Send a region of a file as the next chunks, after the bytes that have been written so far
+	 * @param file The file
+	 * @param position Where the region starts
+	 * @param count The length of the region
+	 * @throws IOException If there was an error reading the file or sending the chunks
+	 * @see Connection#sendFile(java.nio.file.Path, com.luneruniverse.simplepacketlibrary.packets.Packet)
+	 */
+	synchronized void transferFrom(FileChannel file, long position, long count) throws IOException {
+		flush();
+		while (count > 0) {
+			int length = (int) Math.min(count, CHUNK_SIZE);
+			awaitCredit(length);
+			connection.sendFileChunk(id, file, position, length);
+			position += length;
+			count -= length;
+		}
+	}
+	/**
+	 * End the stream without finishing it, so the receiver's stream throws instead of ending normally
+	 */
+	synchronized void abort() {
+		if (closed)
+			return;
+		closed = true;
+		connection.removeSentStream(this);
+		if (!cancelled && !ended)
+			connection.abortSentStream(id);
+	}
+	
+	private void sendChunk() throws IOException {
+		awaitCredit(count);
+		connection.sendControlPacket(PacketData.STREAM_CHUNK, id, chunk, count);
+		count = 0;
+	}
+	private void awaitCredit(int bytes) throws IOException {
+		synchronized (creditLock) {
+			while (true) {
+				if (cancelled)
+					throw new IOException("The stream was cancelled by the receiver!");
+				if (ended)
+					throw new IOException("The connection isn't alive!");
+				if (credit >= bytes)
+					break;
+				try {
+					creditLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the receiver to read the stream");
+				}
+			}
+			credit -= bytes;
+		}
+	}
+	
+	/**
+	 * Called when the receiver has read some of the stream
+	 * @param bytes The number of bytes that were read
+	 */
+	void acknowledge(long bytes) {
+		synchronized (creditLock) {
+			credit += bytes;
+			creditLock.notifyAll();
+		}
+	}
+	/**
+	 * Called when the receiver closed the stream without reading all of it
+	 */
+	void cancel() {
+		cancelled = true;
+		synchronized (creditLock) {
+			creditLock.notifyAll();
+		}
+	}
+	/**
+	 * Called when the connection closes
+	 */
+	void connectionClosed() {
+		ended = true;
+		synchronized (creditLock) {
+			creditLock.notifyAll();
+		}
+	}
+	
+}
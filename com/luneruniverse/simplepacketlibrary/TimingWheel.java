@@ -0,0 +1,233 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
+
+/**
+ * A hashed timing wheel that runs tasks after a delay <br>
+ * Scheduling and cancelling a task are O(1), and expiring tasks is O(1) amortized <br>
+ * A single daemon thread ticks the wheel, and it sleeps while there aren't any scheduled tasks <br>
+ * The tasks are run on that thread, so they must be short, and a task that throws reports the error to the connection that scheduled it
+ */
+class TimingWheel {
+	
+	/**
+	 * A task scheduled on the wheel
+	 */
+	class Timeout {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		
+		private final Runnable task;
+		private final Connection owner;
+		private final long deadline; // Nanoseconds after the wheel was created
+		volatile int state; // Not private so the updater can access it
+		private long remainingRounds;
+		private Timeout prev;
+		private Timeout next;
+		private Bucket bucket;
+		
+		private Timeout(Runnable task, Connection owner, long deadline) {
+			this.task = task;
+			this.owner = owner;
+			this.deadline = deadline;
+		}
+		
+		/**
+		 * Prevent the task from running
+		 * @return If the task was cancelled, rather than having already run or been cancelled
+		 */
+		boolean cancel() {
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+				return false;
+			cancelled.add(this);
+			return true;
+		}
+	}
+	private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+	
+	/**
+	 * A doubly linked list of timeouts, only accessed by the wheel thread
+	 */
+	private static class Bucket {
+		private Timeout head;
+		private Timeout tail;
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null)
+				head = tail = timeout;
+			else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+		private void remove(Timeout timeout) {
+			if (timeout.prev == null)
+				head = timeout.next;
+			else
+				timeout.prev.next = timeout.next;
+			if (timeout.next == null)
+				tail = timeout.prev;
+			else
+				timeout.next.prev = timeout.prev;
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+	
+	
+	private final String name;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime;
+	private final Queue<Timeout> pending;
+	private final Queue<Timeout> cancelled;
+	private final AtomicBoolean started;
+	private final Object idleLock;
+	private volatile boolean idle;
+	private int size; // Only accessed by the wheel thread
+	
+	/**
+	 * Create a timing wheel <br>
+	 * The thread is started when the first task is scheduled
+	 * @param name The name of the thread
+	 * @param tickMillis The resolution of the wheel
+	 * @param wheelSize The number of buckets, rounded up to a power of two
+	 */
+	TimingWheel(String name, long tickMillis, int wheelSize) {
+		if (tickMillis <= 0)
+			throw new IllegalArgumentException("The tick must be positive!");
+		if (wheelSize <= 0 || wheelSize > (1 << 30))
+			throw new IllegalArgumentException("The wheel size must be between 1 and 2^30!");
+		this.name = name;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int buckets = Integer.highestOneBit(wheelSize - 1) << 1;
+		if (buckets == 0)
+			buckets = 1;
+		this.wheel = new Bucket[buckets];
+		for (int i = 0; i < buckets; i++)
+			wheel[i] = new Bucket();
+		this.mask = buckets - 1;
+		this.startTime = System.nanoTime();
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.cancelled = new ConcurrentLinkedQueue<>();
+		this.started = new AtomicBoolean();
+		this.idleLock = new Object();
+	}
+	/**
+	 * Create a timing wheel with a 10 millisecond resolution and 512 buckets
+	 * @param name The name of the thread
+	 */
+	TimingWheel(String name) {
+		this(name, 10, 512);
+	}
+	
+	/**
+	 * Run a task after a delay
+	 * @param task The task
+	 * @param delayMillis The delay in milliseconds
+	 * @param owner The connection that errors thrown by the task are reported to
+	 * @return The timeout, for cancelling the task
+	 */
+	Timeout schedule(Runnable task, long delayMillis, Connection owner) {
+		Timeout timeout = new Timeout(task, owner, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+		pending.add(timeout);
+		if (!started.get() && started.compareAndSet(false, true)) {
+			Thread thread = new Thread(this::run, name);
+			thread.setDaemon(true);
+			thread.start();
+		} else if (idle) {
+			synchronized (idleLock) {
+				idleLock.notify();
+			}
+		}
+		return timeout;
+	}
+	
+	private void run() {
+		long tick = currentTick();
+		while (true) {
+			removeCancelled();
+			if (size == 0 && pending.isEmpty()) {
+				synchronized (idleLock) {
+					idle = true;
+					while (pending.isEmpty()) {
+						try {
+							idleLock.wait();
+						} catch (InterruptedException e) {
+							// The thread is never interrupted on purpose
+						}
+					}
+					idle = false;
+				}
+				tick = currentTick();
+			}
+			
+			long deadline = (tick + 1) * tickNanos;
+			long sleep;
+			while ((sleep = deadline - (System.nanoTime() - startTime)) > 0)
+				LockSupport.parkNanos(this, sleep);
+			
+			removeCancelled();
+			transferPending(tick);
+			expire(wheel[(int) (tick & mask)]);
+			tick++;
+		}
+	}
+	private long currentTick() {
+		return (System.nanoTime() - startTime) / tickNanos;
+	}
+	
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+				size--;
+			}
+		}
+	}
+	private void transferPending(long tick) {
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			if (timeout.state != Timeout.PENDING)
+				continue;
+			long calculated = timeout.deadline / tickNanos;
+			timeout.remainingRounds = Math.max(0, (calculated - tick) / wheel.length);
+			wheel[(int) (Math.max(calculated, tick) & mask)].add(timeout);
+			size++;
+		}
+	}
+	private void expire(Bucket bucket) {
+		Timeout timeout = bucket.head;
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.remainingRounds <= 0) {
+				bucket.remove(timeout);
+				size--;
+				if (STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+					try {
+						timeout.task.run();
+					} catch (Exception e) {
+						timeout.owner.onError(e, timeout.owner, ErrorHandler.Error.RUNNING_SCHEDULED_TASK);
+					} catch (Throwable e) {
+						timeout.owner.onError(new Exception("A scheduled task threw an error", e), timeout.owner, ErrorHandler.Error.RUNNING_SCHEDULED_TASK);
+					}
+				}
+			} else
+				timeout.remainingRounds--;
+			timeout = next;
+		}
+	}
+	
+}
@@ -0,0 +1,233 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Settings for the underlying TCP sockets <br>
+ * Options that are left unset keep the system's defaults, except that Nagle's algorithm is disabled by default,
+ * since it delays small packets, such as responses, by up to 40 milliseconds
+ * @see Server#setTransportOptions(TransportOptions)
+ * @see Client#setTransportOptions(TransportOptions)
+ */
+public class TransportOptions {
+	
+	private boolean tcpNoDelay;
+	private boolean keepAlive;
+	private int sendBufferSize;
+	private int receiveBufferSize;
+	private int backlog;
+	private Boolean reuseAddress;
+	private int webSocketDecoders;
+	
+	/**
+	 * Create the default options
+	 */
+	public TransportOptions() {
+		this.tcpNoDelay = true;
+	}
+	
+	/**
+	 * Set TCP_NODELAY, which sends small packets immediately instead of waiting to combine them <br>
+	 * Enabled by default
+	 * @param tcpNoDelay If Nagle's algorithm should be disabled
+	 * @return this
+	 * @see #isTcpNoDelay()
+	 */
+	public TransportOptions setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+		return this;
+	}
+	/**
+	 * @return If Nagle's algorithm is disabled
+	 * @see #setTcpNoDelay(boolean)
+	 */
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+	
+	/**
+	 * <strong>DOESN'T APPLY TO THE WEBSOCKET SERVER</strong> <br>
+	 * Set SO_KEEPALIVE, which detects dead connections that are idle <br>
+	 * Disabled by default
+	 * @param keepAlive If keep-alive should be enabled
+	 * @return this
+	 * @see #isKeepAlive()
+	 */
+	public TransportOptions setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+		return this;
+	}
+	/**
+	 * @return If keep-alive is enabled
+	 * @see #setKeepAlive(boolean)
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+	
+	/**
+	 * <strong>DOESN'T APPLY TO THE WEBSOCKET SERVER</strong> <br>
+	 * Set SO_SNDBUF, the size of the system's send buffer
+	 * @param sendBufferSize The size in bytes, or 0 for the system's default
+	 * @return this
+	 * @see #getSendBufferSize()
+	 */
+	public TransportOptions setSendBufferSize(int sendBufferSize) {
+		if (sendBufferSize < 0)
+			throw new IllegalArgumentException("The buffer size cannot be negative!");
+		this.sendBufferSize = sendBufferSize;
+		return this;
+	}
+	/**
+	 * @return The size of the send buffer in bytes, or 0 for the system's default
+	 * @see #setSendBufferSize(int)
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+	
+	/**
+	 * Set SO_RCVBUF, the size of the system's receive buffer <br>
+	 * On a server, this is set before binding, so the accepted connections can use windows larger than 64 KB
+	 * @param receiveBufferSize The size in bytes, or 0 for the system's default
+	 * @return this
+	 * @see #getReceiveBufferSize()
+	 */
+	public TransportOptions setReceiveBufferSize(int receiveBufferSize) {
+		if (receiveBufferSize < 0)
+			throw new IllegalArgumentException("The buffer size cannot be negative!");
+		this.receiveBufferSize = receiveBufferSize;
+		return this;
+	}
+	/**
+	 * @return The size of the receive buffer in bytes, or 0 for the system's default
+	 * @see #setReceiveBufferSize(int)
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+	
+	/**
+	 * <strong>ONLY APPLIES TO THE SERVER</strong> <br>
+	 * Set the number of connections that can wait to be accepted
+	 * @param backlog The number of connections, or 0 for the default
+	 * @return this
+	 * @see #getBacklog()
+	 */
+	public TransportOptions setBacklog(int backlog) {
+		if (backlog < 0)
+			throw new IllegalArgumentException("The backlog cannot be negative!");
+		this.backlog = backlog;
+		return this;
+	}
+	/**
+	 * @return The number of connections that can wait to be accepted, or 0 for the default
+	 * @see #setBacklog(int)
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+	
+	/**
+	 * Set SO_REUSEADDR, which allows binding to a port that still has connections closing on it
+	 * @param reuseAddress If the address can be reused, or null for the default
+	 * @return this
+	 * @see #getReuseAddress()
+	 */
+	public TransportOptions setReuseAddress(Boolean reuseAddress) {
+		this.reuseAddress = reuseAddress;
+		return this;
+	}
+	/**
+	 * @return If the address can be reused, or null for the default
+	 * @see #setReuseAddress(Boolean)
+	 */
+	public Boolean getReuseAddress() {
+		return reuseAddress;
+	}
+	
+	/**
+	 * <strong>ONLY APPLIES TO THE WEBSOCKET SERVER</strong> <br>
+	 * Set the number of threads that decode the WebSocket messages
+	 * @param webSocketDecoders The number of threads, or 0 for one per processor
+	 * @return this
+	 * @see #getWebSocketDecoders()
+	 */
+	public TransportOptions setWebSocketDecoders(int webSocketDecoders) {
+		if (webSocketDecoders < 0)
+			throw new IllegalArgumentException("The number of decoders cannot be negative!");
+		this.webSocketDecoders = webSocketDecoders;
+		return this;
+	}
+	/**
+	 * @return The number of threads that decode the WebSocket messages, or 0 for one per processor
+	 * @see #setWebSocketDecoders(int)
+	 */
+	public int getWebSocketDecoders() {
+		return webSocketDecoders;
+	}
+	
+	/**
+	 * Internal use only <br>
+	 * Apply the options to a connection's socket
+	 * @param socket The socket
+	 * @throws SocketException If an option couldn't be set
+	 */
+	public void configure(Socket socket) throws SocketException {
+		socket.setTcpNoDelay(tcpNoDelay);
+		socket.setKeepAlive(keepAlive);
+		if (sendBufferSize > 0)
+			socket.setSendBufferSize(sendBufferSize);
+		if (receiveBufferSize > 0)
+			socket.setReceiveBufferSize(receiveBufferSize);
+		if (reuseAddress != null)
+			socket.setReuseAddress(reuseAddress);
+	}
+	/**
+	 * Internal use only <br>
+	 * Apply the options to a connection's channel
+	 * @param channel The channel
+	 * @throws IOException If an option couldn't be set
+	 */
+	public void configure(SocketChannel channel) throws IOException {
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+		channel.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+		if (sendBufferSize > 0)
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+		if (receiveBufferSize > 0)
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+		if (reuseAddress != null)
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+	}
+	/**
+	 * Internal use only <br>
+	 * Apply the options to a server's socket, before it is bound
+	 * @param socket The server socket
+	 * @throws SocketException If an option couldn't be set
+	 */
+	public void configure(ServerSocket socket) throws SocketException {
+		if (receiveBufferSize > 0)
+			socket.setReceiveBufferSize(receiveBufferSize);
+		if (reuseAddress != null)
+			socket.setReuseAddress(reuseAddress);
+	}
+	/**
+	 * Internal use only <br>
+	 * Apply the options to a server's channel, before it is bound
+	 * @param channel The server channel
+	 * @throws IOException If an option couldn't be set
+	 */
+	public void configure(ServerSocketChannel channel) throws IOException {
+		if (receiveBufferSize > 0)
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+		if (reuseAddress != null)
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+	}
+	
+}
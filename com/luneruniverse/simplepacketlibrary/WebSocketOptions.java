@@ -0,0 +1,125 @@
+package com.luneruniverse.simplepacketlibrary;
+
+import java.util.zip.Deflater;
+
+/**
+ * Settings for the WebSocket mode, such as compressing the messages with the permessage-deflate extension <br>
+ * Browsers negotiate permessage-deflate on their own, so enabling it on the server compresses the messages to the JavaScript variant of this library
+ * @see Server#useWebSocket(WebSocketOptions)
+ * @see Client#useWebSocket(WebSocketOptions)
+ */
+public class WebSocketOptions {
+	
+	private boolean perMessageDeflate;
+	private int compressionLevel;
+	private int compressionThreshold;
+	private boolean serverNoContextTakeover;
+	private boolean clientNoContextTakeover;
+	
+	/**
+	 * Create the default options, which don't compress the messages
+	 */
+	public WebSocketOptions() {
+		this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		this.compressionThreshold = 64;
+	}
+	
+	/**
+	 * Compress the messages with the permessage-deflate extension, if the other side supports it <br>
+	 * Otherwise, the messages are sent uncompressed
+	 * @param perMessageDeflate If permessage-deflate should be offered
+	 * @return this
+	 * @see #isPerMessageDeflate()
+	 */
+	public WebSocketOptions setPerMessageDeflate(boolean perMessageDeflate) {
+		this.perMessageDeflate = perMessageDeflate;
+		return this;
+	}
+	/**
+	 * @return If permessage-deflate is offered
+	 * @see #setPerMessageDeflate(boolean)
+	 */
+	public boolean isPerMessageDeflate() {
+		return perMessageDeflate;
+	}
+	
+	/**
+	 * Set the compression level, which defaults to {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param compressionLevel The level, from 0 to 9, or -1 for the default
+	 * @return this
+	 * @see #getCompressionLevel()
+	 */
+	public WebSocketOptions setCompressionLevel(int compressionLevel) {
+		if ((compressionLevel < 0 || compressionLevel > 9) && compressionLevel != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level!");
+		this.compressionLevel = compressionLevel;
+		return this;
+	}
+	/**
+	 * @return The compression level
+	 * @see #setCompressionLevel(int)
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+	
+	/**
+	 * Set the smallest message that is compressed, which defaults to 64 bytes <br>
+	 * Smaller messages usually grow when compressed
+	 * @param compressionThreshold The threshold in bytes
+	 * @return this
+	 * @see #getCompressionThreshold()
+	 */
+	public WebSocketOptions setCompressionThreshold(int compressionThreshold) {
+		if (compressionThreshold < 0)
+			throw new IllegalArgumentException("The threshold cannot be negative!");
+		this.compressionThreshold = compressionThreshold;
+		return this;
+	}
+	/**
+	 * @return The smallest message that is compressed, in bytes
+	 * @see #setCompressionThreshold(int)
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * Reset the server's compressor after every message, instead of keeping the window between messages <br>
+	 * This uses less memory per connection, but compresses similar messages worse
+	 * @param serverNoContextTakeover If the server's context shouldn't be kept
+	 * @return this
+	 * @see #isServerNoContextTakeover()
+	 */
+	public WebSocketOptions setServerNoContextTakeover(boolean serverNoContextTakeover) {
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		return this;
+	}
+	/**
+	 * @return If the server's compressor is reset after every message
+	 * @see #setServerNoContextTakeover(boolean)
+	 */
+	public boolean isServerNoContextTakeover() {
+		return serverNoContextTakeover;
+	}
+	
+	/**
+	 * Reset the client's compressor after every message, instead of keeping the window between messages <br>
+	 * This uses less memory per connection, but compresses similar messages worse
+	 * @param clientNoContextTakeover If the client's context shouldn't be kept
+	 * @return this
+	 * @see #isClientNoContextTakeover()
+	 */
+	public WebSocketOptions setClientNoContextTakeover(boolean clientNoContextTakeover) {
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		return this;
+	}
+	/**
+	 * @return If the client's compressor is reset after every message
+	 * @see #setClientNoContextTakeover(boolean)
+	 */
+	public boolean isClientNoContextTakeover() {
+		return clientNoContextTakeover;
+	}
+	
+}
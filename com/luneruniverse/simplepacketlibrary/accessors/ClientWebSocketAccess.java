@@ -1,22 +1,22 @@
 package com.luneruniverse.simplepacketlibrary.accessors;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
 import com.luneruniverse.simplepacketlibrary.Client;
+import com.luneruniverse.simplepacketlibrary.TransportOptions;
+import com.luneruniverse.simplepacketlibrary.WebSocketOptions;
 import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
 
 /**
@@ -25,7 +25,8 @@ import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
 public class ClientWebSocketAccess extends WebSocketClient implements SocketAccess {
 	
 	private final Client client;
-	private final Queue<PacketData> packets;
+	private final MessageHandoff messages;
+	private final PendingMessages pending;
 	
 	/**
 	 * Internal use only <br>
@@ -34,16 +35,28 @@ public class ClientWebSocketAccess extends WebSocketClient implements SocketAcce
 	 * @param ip The ip to connect to
 	 * @param port The port to connect on
 	 * @param timeout The connection timeout
-	 * @param ssl The SSL certificate
+	 * @param ssl The SSL certificate, or null to use the default one for wss
+	 * @param options The WebSocket options, or null for the defaults
+	 * @param transport The socket options
 	 * @throws URISyntaxException If the ip is invalid
 	 * @throws IOException If there was an error connecting
 	 */
-	public ClientWebSocketAccess(Client client, String ip, int port, int timeout, SSLContext ssl) throws URISyntaxException, IOException {
-		super(new URI(ip + ":" + port));
+	public ClientWebSocketAccess(Client client, String ip, int port, int timeout, SSLContext ssl, WebSocketOptions options, TransportOptions transport) throws URISyntaxException, IOException {
+		super(new URI(ip + ":" + port), WebSocketDrafts.create(options, client.getMaxFrameSize()));
 		this.client = client;
-		this.packets = new ConcurrentLinkedQueue<>();
+		this.messages = new MessageHandoff();
+		this.pending = new PendingMessages(getConnection());
+		setTcpNoDelay(transport.isTcpNoDelay());
+		if (transport.getReuseAddress() != null)
+			setReuseAddr(transport.getReuseAddress());
+		SocketFactory factory;
 		if (ssl != null)
-			setSocketFactory(ssl.getSocketFactory());
+			factory = ssl.getSocketFactory();
+		else if ("wss".equals(getURI().getScheme()))
+			factory = SSLSocketFactory.getDefault(); // Setting a factory skips the WebSocket's own upgrade to SSL
+		else
+			factory = SocketFactory.getDefault();
+		setSocketFactory(new ConfiguredSocketFactory(factory, transport));
 		try {
 			if (!this.connectBlocking(timeout, TimeUnit.MILLISECONDS))
 				throw new IOException("Unable to connect to server");
@@ -64,10 +77,11 @@ public class ClientWebSocketAccess extends WebSocketClient implements SocketAcce
 	
 	@Override
 	public void onMessage(ByteBuffer buf) {
-		byte[] data = new byte[buf.remaining()];
-		buf.get(data);
 		try {
-			packets.add(readPacket(new DataInputStream(new ByteArrayInputStream(data))));
+			messages.message(buf);
+		} catch (InboundLimitException e) {
+			client.onError(e, client, ErrorHandler.Error.EXCEEDED_INBOUND_LIMIT);
+			close();
 		} catch (IOException e) {
 			client.onError(e, client, ErrorHandler.Error.READING_WEBSOCKET_PACKET);
 		}
@@ -80,22 +94,54 @@ public class ClientWebSocketAccess extends WebSocketClient implements SocketAcce
 	
 	@Override
 	public void onClose(int code, String reason, boolean remote) {
-		packets.clear();
+		messages.closed(null);
 	}
 	
+	/**
+	 * Not supported, since the packets are delivered by the WebSocket's callbacks
+	 * @see #startReading(PacketReceiver)
+	 */
 	@Override
-	public PacketData readPacket() throws IOException, InterruptedException {
-		while (packets.isEmpty()) {
-			if (isClosed())
-				throw new EOFException();
-			Thread.sleep(1);
-		}
-		return packets.remove();
+	public PacketData readPacket() throws IOException {
+		throw new IOException("Packets are delivered through startReading");
+	}
+	@Override
+	public void setInboundLimits(int maxFrameSize, long maxQueuedBytes) {
+		messages.setInboundLimits(maxFrameSize, maxQueuedBytes);
+	}
+	@Override
+	public boolean startReading(PacketReceiver receiver) {
+		messages.start(receiver);
+		return true;
 	}
 	
 	@Override
-	public void sendPacket(byte[] data) throws IOException {
+	public void sendPacket(ByteBuffer data) throws IOException {
+		int size = data.remaining();
 		send(data);
+		pending.sent(size);
+	}
+	@Override
+	public void sendBatch(List<ByteBuffer> data) throws IOException {
+		ByteBuffer message = MessageHandoff.join(data);
+		int size = message.remaining();
+		send(message);
+		pending.sent(size);
+	}
+	
+	@Override
+	public boolean queuesWrites() {
+		return true;
+	}
+	@Override
+	public long getPendingBytes() {
+		return pending.getPendingBytes();
+	}
+	
+	@Override
+	public void close() {
+		super.close();
+		messages.closed(null);
 	}
 	
 }
@@ -0,0 +1,64 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+import com.luneruniverse.simplepacketlibrary.TransportOptions;
+
+/**
+ * Applies the {@link TransportOptions} to every socket that another factory creates <br>
+ * Unconnected sockets are configured before they connect, so SO_RCVBUF can still affect the window
+ */
+class ConfiguredSocketFactory extends SocketFactory {
+	
+	private final SocketFactory factory;
+	private final TransportOptions transport;
+	
+	/**
+	 * @param factory The factory that creates the sockets, such as an SSL socket factory
+	 * @param transport The socket options
+	 */
+	ConfiguredSocketFactory(SocketFactory factory, TransportOptions transport) {
+		this.factory = factory;
+		this.transport = transport;
+	}
+	
+	private Socket configure(Socket socket) throws IOException {
+		try {
+			transport.configure(socket);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+	
+	@Override
+	public Socket createSocket() throws IOException {
+		return configure(factory.createSocket());
+	}
+	
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return configure(factory.createSocket(host, port));
+	}
+	
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return configure(factory.createSocket(host, port, localHost, localPort));
+	}
+	
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return configure(factory.createSocket(host, port));
+	}
+	
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		return configure(factory.createSocket(address, port, localAddress, localPort));
+	}
+	
+}
@@ -0,0 +1,235 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a stream of bytes into packets <br>
+ * Bytes are read in large chunks into a reusable buffer, and every complete packet in the buffer
+ * is returned before reading again <br>
+ * The returned packets reference the buffer, so they are only valid until the next read <br>
+ * Alternatively, bytes read by the caller can be supplied with {@link #feed(byte[], int, int)} <br>
+ * The frames start out with a fixed 16 byte header, and switch to the compact header after a {@link PacketData#SWITCH}: <br>
+ * A flags byte, then varints for the type, the id, the response id (only if {@link PacketData#FLAG_RESPONSE} is set), and the length
+ */
+class FrameDecoder {
+	
+	static final int HEADER_SIZE = 16;
+	static final int MAX_HEADER_SIZE = 21; // A flags byte and four varints, for compact frames
+	
+	private final int initialCapacity;
+	private byte[] buf;
+	private int start;
+	private int end;
+	private boolean borrowed;
+	private boolean compact;
+	private int required; // The number of bytes from start that the next packet needs, at least
+	private int pos; // Used while parsing a compact header
+	private volatile int maxFrameSize;
+	
+	/**
+	 * Create a decoder
+	 * @param initialCapacity The size of the buffer, which grows to fit larger packets
+	 */
+	FrameDecoder(int initialCapacity) {
+		this.initialCapacity = initialCapacity;
+		this.buf = new byte[initialCapacity];
+		this.maxFrameSize = Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Set the largest payload that is accepted, which is checked before the buffer grows to fit the payload
+	 * @param maxFrameSize The size in bytes, or -1 for no limit
+	 */
+	void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = (maxFrameSize == -1 ? Integer.MAX_VALUE : maxFrameSize);
+	}
+	private void checkLength(long length) throws InboundLimitException {
+		if (length > maxFrameSize)
+			throw new InboundLimitException("Received a packet of " + length + " bytes, which is larger than the limit of " + maxFrameSize + " bytes!");
+	}
+	
+	/**
+	 * Return the next packet, reading from the stream only if a complete packet isn't already buffered
+	 * @param in The stream
+	 * @return The packet, which is only valid until the next call
+	 * @throws IOException If there was an exception reading the packet
+	 * @throws EOFException If the stream ended
+	 */
+	PacketData read(InputStream in) throws IOException {
+		PacketData data;
+		while ((data = poll()) == null) {
+			if (!fill(in))
+				throw new EOFException();
+		}
+		return data;
+	}
+	
+	/**
+	 * Return the next packet if it has been completely buffered
+	 * @return The packet, or null
+	 * @throws IOException If the packet is invalid
+	 */
+	PacketData poll() throws IOException {
+		return (compact ? pollCompact() : pollFixed());
+	}
+	private PacketData pollFixed() throws IOException {
+		int available = end - start;
+		if (available < HEADER_SIZE) {
+			required = HEADER_SIZE;
+			return null;
+		}
+		int length = getInt(start + 12);
+		if (length < 0)
+			throw new IOException("Received a packet with a negative length!");
+		if (length > Integer.MAX_VALUE - HEADER_SIZE)
+			throw new IOException("Received a packet with an invalid length!");
+		checkLength(length);
+		if (available - HEADER_SIZE < length) {
+			required = (int) ((long) HEADER_SIZE + length);
+			return null;
+		}
+		PacketData data = new PacketData(getInt(start), getInt(start + 4), getInt(start + 8), buf, start + HEADER_SIZE, length);
+		start += HEADER_SIZE + length;
+		if (data.packetType == PacketData.SWITCH)
+			compact = true;
+		return data;
+	}
+	private PacketData pollCompact() throws IOException {
+		pos = start;
+		required = end - start + 1; // If the header is incomplete
+		if (pos >= end)
+			return null;
+		int flags = buf[pos++] & 0xFF;
+		long packetType = readVarint();
+		if (packetType == -1)
+			return null;
+		long id = readVarint();
+		if (id == -1)
+			return null;
+		long responseId = 0xFFFFFFFFL;
+		if ((flags & PacketData.FLAG_RESPONSE) != 0 && (responseId = readVarint()) == -1)
+			return null;
+		long length = readVarint();
+		if (length == -1)
+			return null;
+		if (length > Integer.MAX_VALUE - 32)
+			throw new IOException("Received a packet with an invalid length!");
+		checkLength(length);
+		if (end - pos < length) {
+			required = (int) (pos - start + length);
+			return null;
+		}
+		PacketData data = new PacketData((int) id, (int) responseId, (int) packetType, flags, buf, pos, (int) length);
+		start = pos + (int) length;
+		return data;
+	}
+	/**
+	 * @return The unsigned 32 bit varint at {@link #pos}, or -1 if it hasn't been completely buffered
+	 */
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (pos >= end)
+				return -1;
+			int b = buf[pos++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value & 0xFFFFFFFFL;
+		}
+		throw new IOException("Received a packet with an invalid header!");
+	}
+	
+	/**
+	 * Read as many bytes as are available, up to the free space in the buffer <br>
+	 * The buffer is compacted first, and grown if the next packet doesn't fit
+	 * @param in The stream
+	 * @return If any bytes were read, or false if the stream ended
+	 * @throws IOException If there was an exception reading from the stream
+	 */
+	private boolean fill(InputStream in) throws IOException {
+		int available = end - start;
+		if (required > buf.length) {
+			byte[] newBuf = new byte[Math.max(required, initialCapacity)];
+			System.arraycopy(buf, start, newBuf, 0, available);
+			buf = newBuf;
+		} else if (available == 0 && buf.length > initialCapacity)
+			buf = new byte[initialCapacity];
+		else if (start > 0)
+			System.arraycopy(buf, start, buf, 0, available);
+		start = 0;
+		end = available;
+		if (end >= buf.length) // A zero length read would never make progress
+			throw new IOException("Received a packet that doesn't fit in the read buffer!");
+		
+		int read = in.read(buf, end, buf.length - end);
+		if (read < 0)
+			return false;
+		end += read;
+		return true;
+	}
+	
+	/**
+	 * Add bytes read by the caller <br>
+	 * If nothing is buffered, the packets are decoded straight from the caller's array,
+	 * so {@link #detach()} must be called once the complete packets have been polled
+	 * @param src The array
+	 * @param offset Where the bytes start
+	 * @param length The number of bytes
+	 */
+	void feed(byte[] src, int offset, int length) {
+		int available = end - start;
+		if (available == 0) {
+			buf = src;
+			start = offset;
+			end = offset + length;
+			borrowed = true;
+			return;
+		}
+		if (buf.length - end < length) {
+			byte[] newBuf = (available + length > buf.length ? new byte[Math.max(available + length, buf.length * 2)] : buf);
+			System.arraycopy(buf, start, newBuf, 0, available);
+			buf = newBuf;
+			start = 0;
+			end = available;
+		}
+		System.arraycopy(src, offset, buf, end, length);
+		end += length;
+	}
+	/**
+	 * Stop referencing the caller's array by copying any incomplete packet into a buffer owned by this decoder <br>
+	 * Empty buffers are dropped, so an idle decoder doesn't hold any memory
+	 */
+	void detach() {
+		int available = end - start;
+		if (available == 0)
+			buf = null;
+		else if (borrowed) {
+			byte[] newBuf = new byte[Math.max(available, 1024)];
+			System.arraycopy(buf, start, newBuf, 0, available);
+			buf = newBuf;
+		} else
+			return;
+		borrowed = false;
+		start = 0;
+		end = available;
+	}
+	/**
+	 * Discard the buffered bytes
+	 * @return The number of bytes that were discarded
+	 */
+	int discard() {
+		int available = end - start;
+		buf = null;
+		borrowed = false;
+		start = 0;
+		end = 0;
+		return available;
+	}
+	
+	private int getInt(int index) {
+		return ((buf[index] & 0xFF) << 24) | ((buf[index + 1] & 0xFF) << 16) | ((buf[index + 2] & 0xFF) << 8) | (buf[index + 3] & 0xFF);
+	}
+	
+}
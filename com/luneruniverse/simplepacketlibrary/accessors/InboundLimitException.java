@@ -0,0 +1,22 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a connection receives a frame larger than its maximum frame size,
+ * or has more received bytes waiting to be handled than it allows <br>
+ * The limit is checked before the memory is allocated, and the connection is closed
+ * @see SocketAccess#setInboundLimits(int, long)
+ */
+public class InboundLimitException extends IOException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * @param message The detail message
+	 */
+	public InboundLimitException(String message) {
+		super(message);
+	}
+	
+}
@@ -0,0 +1,127 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Hands the messages from a WebSocket's callbacks straight to a {@link PacketReceiver} <br>
+ * Messages that arrive before the receiver is set are kept until {@link #start(PacketReceiver)}
+ */
+class MessageHandoff {
+	
+	/**
+	 * Combine packets into a single message, which {@link #message(ByteBuffer)} splits back into the packets
+	 * @param data The packets
+	 * @return The message
+	 */
+	static ByteBuffer join(List<ByteBuffer> data) {
+		if (data.size() == 1)
+			return data.get(0);
+		int size = 0;
+		for (ByteBuffer buf : data)
+			size += buf.remaining();
+		ByteBuffer message = ByteBuffer.allocate(size);
+		for (ByteBuffer buf : data)
+			message.put(buf.duplicate());
+		message.flip();
+		return message;
+	}
+	
+	
+	private final FrameDecoder decoder; // Each message is a whole number of frames
+	private PacketReceiver receiver;
+	private Queue<PacketData> early; // Received before the receiver was set
+	private long earlyBytes;
+	private long maxEarlyBytes;
+	private boolean closed;
+	private IOException closeCause;
+	
+	MessageHandoff() {
+		this.decoder = new FrameDecoder(0);
+		this.early = new ArrayDeque<>();
+		this.maxEarlyBytes = -1;
+	}
+	
+	/**
+	 * Limit the memory that received packets can use
+	 * @param maxFrameSize The largest payload that is accepted, in bytes, or -1 for no limit
+	 * @param maxQueuedBytes The most bytes that can be kept before the receiver is set, or -1 for no limit
+	 */
+	synchronized void setInboundLimits(int maxFrameSize, long maxQueuedBytes) {
+		decoder.setMaxFrameSize(maxFrameSize);
+		this.maxEarlyBytes = maxQueuedBytes;
+	}
+	
+	/**
+	 * Set the receiver, and deliver the messages that were received before it
+	 * @param receiver The receiver
+	 */
+	synchronized void start(PacketReceiver receiver) {
+		this.receiver = receiver;
+		PacketData data;
+		while ((data = early.poll()) != null)
+			receiver.packetReceived(data);
+		early = null;
+		earlyBytes = 0;
+		if (closed)
+			receiver.socketClosed(closeCause);
+	}
+	
+	/**
+	 * Decode a message and deliver it <br>
+	 * The payload isn't copied unless the receiver hasn't been set yet
+	 * @param message The message
+	 * @throws IOException If the message isn't a valid packet
+	 */
+	synchronized void message(ByteBuffer message) throws IOException {
+		if (closed)
+			return;
+		if (message.hasArray())
+			decoder.feed(message.array(), message.arrayOffset() + message.position(), message.remaining());
+		else {
+			byte[] copy = new byte[message.remaining()];
+			message.get(copy);
+			decoder.feed(copy, 0, copy.length);
+		}
+		int incomplete;
+		try {
+			PacketData data;
+			while (!closed && (data = decoder.poll()) != null) { // A limit may close the socket from the receiver
+				if (receiver == null) {
+					earlyBytes += data.length;
+					if (maxEarlyBytes != -1 && earlyBytes > maxEarlyBytes)
+						throw new InboundLimitException("Too many bytes were received before the connection was started!");
+					byte[] payload = new byte[data.length];
+					System.arraycopy(data.data, data.offset, payload, 0, data.length);
+					early.add(new PacketData(data.id, data.responseId, data.packetType, data.flags, payload, 0, payload.length));
+				} else
+					receiver.packetReceived(data);
+			}
+		} finally {
+			incomplete = decoder.discard();
+		}
+		if (incomplete != 0)
+			throw new IOException("Received an incomplete packet!");
+	}
+	
+	/**
+	 * Stop delivering messages, and notify the receiver once
+	 * @param cause The exception that closed the socket, or null if it was closed normally
+	 */
+	synchronized void closed(IOException cause) {
+		if (closed)
+			return;
+		closed = true;
+		closeCause = cause;
+		if (receiver != null)
+			receiver.socketClosed(cause);
+		else {
+			early.clear();
+			earlyBytes = 0;
+		}
+	}
+	
+}
@@ -0,0 +1,103 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.luneruniverse.simplepacketlibrary.Server;
+import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
+
+/**
+ * A thread that handles the reads and writes of many {@link NioSocketAccess}es with a {@link Selector} <br>
+ * If the loop fails, the error is reported to the server, and its sockets are closed with the error as the cause
+ */
+class NioEventLoop implements Runnable {
+	
+	private final Server server;
+	private final Selector selector;
+	private final Queue<Runnable> tasks;
+	private final ByteBuffer readBuffer; // Shared by all the sockets, since reads only happen on this thread
+	private final Thread thread;
+	private volatile boolean closed;
+	
+	/**
+	 * Create and start an event loop
+	 * @param name The name of the thread
+	 * @param server The server that errors are reported to
+	 * @throws IOException If the selector couldn't be opened
+	 */
+	NioEventLoop(String name, Server server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.readBuffer = ByteBuffer.allocate(64 * 1024);
+		this.thread = new Thread(this, name);
+		this.thread.start();
+	}
+	
+	Selector getSelector() {
+		return selector;
+	}
+	ByteBuffer getReadBuffer() {
+		return readBuffer;
+	}
+	
+	/**
+	 * Run a task on the event loop's thread
+	 * @param task The task
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+	
+	@Override
+	public void run() {
+		IOException cause = null;
+		try {
+			while (!closed) {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null)
+					task.run();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					NioSocketAccess socket = (NioSocketAccess) key.attachment();
+					if (key.isValid() && key.isWritable())
+						socket.handleWrite();
+					if (key.isValid() && key.isReadable())
+						socket.handleRead();
+				}
+			}
+		} catch (IOException e) {
+			cause = e;
+		} catch (RuntimeException e) {
+			cause = new IOException("The event loop failed", e);
+		} finally {
+			if (cause != null)
+				server.onError(cause, server, ErrorHandler.Error.HANDLING_CONNECTIONS);
+			for (SelectionKey key : selector.keys())
+				((NioSocketAccess) key.attachment()).close(cause);
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Already closing
+			}
+		}
+	}
+	
+	/**
+	 * Stop the event loop and close all of its sockets
+	 */
+	void close() {
+		closed = true;
+		selector.wakeup();
+	}
+	
+}
@@ -0,0 +1,92 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.luneruniverse.simplepacketlibrary.Server;
+import com.luneruniverse.simplepacketlibrary.TransportOptions;
+
+/**
+ * The implementation for the non-blocking raw socket mode for the server <br>
+ * The connections are spread across a fixed number of {@link NioEventLoop}s,
+ * so the number of threads doesn't grow with the number of connections
+ */
+public class NioServerAccess implements ServerAccess {
+	
+	private final ServerSocketChannel socket;
+	private final NioEventLoop[] loops;
+	private final TransportOptions options;
+	private int nextLoop;
+	
+	/**
+	 * Internal use only <br>
+	 * Create a non-blocking raw server
+	 * @param server The actual server
+	 * @param eventLoops The number of threads that handle the connections
+	 * @throws IOException If the server couldn't be started
+	 */
+	public NioServerAccess(Server server, int eventLoops) throws IOException {
+		this(server, eventLoops, null);
+	}
+	/**
+	 * Internal use only <br>
+	 * Create a non-blocking raw server
+	 * @param server The actual server
+	 * @param eventLoops The number of threads that handle the connections
+	 * @param options The options for the server and the accepted sockets, or null to keep the system's defaults
+	 * @throws IOException If the server couldn't be started
+	 */
+	public NioServerAccess(Server server, int eventLoops, TransportOptions options) throws IOException {
+		if (eventLoops <= 0)
+			throw new IllegalArgumentException("There must be at least one event loop!");
+		this.socket = ServerSocketChannel.open();
+		this.loops = new NioEventLoop[eventLoops];
+		this.options = options;
+		try {
+			if (options != null)
+				options.configure(socket);
+			socket.bind(new InetSocketAddress(server.getPort()), options == null ? 0 : options.getBacklog());
+			for (int i = 0; i < eventLoops; i++)
+				loops[i] = new NioEventLoop("Event Loop [" + server.getPort() + "] #" + i, server);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+	
+	@Override
+	public SocketAccess accept() throws IOException, InterruptedException {
+		SocketChannel channel;
+		try {
+			channel = socket.accept();
+		} catch (ClosedByInterruptException e) {
+			throw new InterruptedException();
+		}
+		NioEventLoop loop = loops[nextLoop];
+		nextLoop = (nextLoop + 1) % loops.length;
+		try {
+			if (options != null)
+				options.configure(channel);
+			return new NioSocketAccess(channel, loop);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			socket.close();
+		} finally {
+			for (NioEventLoop loop : loops) {
+				if (loop != null)
+					loop.close();
+			}
+		}
+	}
+	
+}
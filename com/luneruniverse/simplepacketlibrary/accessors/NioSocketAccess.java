@@ -0,0 +1,236 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The implementation for the non-blocking raw socket mode for the server connection <br>
+ * Reads and writes are handled by a shared {@link NioEventLoop}, so the connection doesn't need its own thread
+ * @see NioServerAccess
+ */
+public class NioSocketAccess implements SocketAccess {
+	
+	private final SocketChannel channel;
+	private final NioEventLoop loop;
+	private final FrameDecoder decoder;
+	private final ArrayDeque<ByteBuffer> pending; // Bytes that couldn't be written immediately, guarded by itself
+	private volatile long pendingBytes;
+	private final AtomicBoolean closed;
+	private volatile SelectionKey key;
+	private volatile PacketReceiver receiver;
+	
+	/**
+	 * Internal use only <br>
+	 * Create a non-blocking raw socket
+	 * @param channel The internal socket
+	 * @param loop The event loop that will handle the socket
+	 * @throws IOException If the socket couldn't be made non-blocking
+	 */
+	NioSocketAccess(SocketChannel channel, NioEventLoop loop) throws IOException {
+		channel.configureBlocking(false);
+		this.channel = channel;
+		this.loop = loop;
+		this.decoder = new FrameDecoder(0);
+		this.pending = new ArrayDeque<>();
+		this.closed = new AtomicBoolean();
+	}
+	
+	/**
+	 * Not supported, since the packets are delivered by the event loop
+	 * @see #startReading(PacketReceiver)
+	 */
+	@Override
+	public PacketData readPacket() throws IOException {
+		throw new IOException("Packets are delivered through startReading");
+	}
+	
+	@Override
+	public void setInboundLimits(int maxFrameSize, long maxQueuedBytes) {
+		decoder.setMaxFrameSize(maxFrameSize);
+	}
+	
+	@Override
+	public boolean startReading(PacketReceiver receiver) {
+		this.receiver = receiver;
+		if (closed.get()) {
+			receiver.socketClosed(null);
+			return true;
+		}
+		loop.execute(() -> {
+			try {
+				int ops = SelectionKey.OP_READ;
+				synchronized (pending) {
+					if (!pending.isEmpty())
+						ops |= SelectionKey.OP_WRITE;
+				}
+				key = channel.register(loop.getSelector(), ops, this);
+			} catch (IOException e) {
+				close(e);
+			}
+		});
+		return true;
+	}
+	
+	void handleRead() {
+		ByteBuffer buf = loop.getReadBuffer();
+		buf.clear();
+		int read;
+		try {
+			read = channel.read(buf);
+		} catch (IOException e) {
+			close(e);
+			return;
+		}
+		if (read < 0) {
+			close(new EOFException());
+			return;
+		}
+		decoder.feed(buf.array(), buf.arrayOffset(), read);
+		try {
+			PacketData data;
+			while (!closed.get() && (data = decoder.poll()) != null) // A limit may close the socket from the receiver
+				receiver.packetReceived(data);
+		} catch (IOException e) {
+			close(e);
+		} finally {
+			decoder.detach();
+		}
+	}
+	
+	@Override
+	public void sendPacket(ByteBuffer data) throws IOException {
+		sendPackets(Collections.singletonList(data));
+	}
+	
+	/**
+	 * Send multiple packets to the internal socket, in order <br>
+	 * The packets are written with a single gathering write, and whatever can't be written
+	 * immediately is copied and written later by the event loop, so this never blocks
+	 */
+	@Override
+	public void sendPackets(List<ByteBuffer> data) throws IOException {
+		if (closed.get())
+			throw new IOException("The socket is closed");
+		boolean requestWrite;
+		synchronized (pending) {
+			boolean wasEmpty = pending.isEmpty();
+			if (wasEmpty)
+				channel.write(data.toArray(new ByteBuffer[0]));
+			for (ByteBuffer buf : data) {
+				if (buf.hasRemaining()) {
+					ByteBuffer copy = ByteBuffer.allocate(buf.remaining());
+					copy.put(buf);
+					copy.flip();
+					pending.add(copy);
+					pendingBytes += copy.remaining();
+				}
+			}
+			requestWrite = wasEmpty && !pending.isEmpty();
+		}
+		if (requestWrite)
+			requestWrite();
+	}
+	/**
+	 * Write the header, and then transfer the body straight from the file to the socket with
+	 * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} <br>
+	 * Only the part that the socket can't take immediately is copied, and written later by the event loop
+	 */
+	@Override
+	public void sendFileRegion(ByteBuffer header, FileChannel file, long position, int length) throws IOException {
+		if (closed.get())
+			throw new IOException("The socket is closed");
+		boolean requestWrite;
+		synchronized (pending) {
+			boolean wasEmpty = pending.isEmpty();
+			int sent = 0;
+			if (wasEmpty) {
+				channel.write(header);
+				while (!header.hasRemaining() && sent < length) {
+					long transferred = file.transferTo(position + sent, length - sent, channel);
+					if (transferred <= 0)
+						break;
+					sent += transferred;
+				}
+			}
+			if (header.hasRemaining() || sent < length) {
+				ByteBuffer rest = ByteBuffer.allocate(header.remaining() + length - sent);
+				rest.put(header);
+				SocketAccess.readFully(file, rest, position + sent);
+				rest.flip();
+				pending.add(rest);
+				pendingBytes += rest.remaining();
+			}
+			requestWrite = wasEmpty && !pending.isEmpty();
+		}
+		if (requestWrite)
+			requestWrite();
+	}
+	private void requestWrite() {
+		loop.execute(() -> {
+			SelectionKey key = this.key;
+			if (key != null && key.isValid())
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		});
+	}
+	
+	void handleWrite() {
+		try {
+			synchronized (pending) {
+				while (!pending.isEmpty()) {
+					pendingBytes -= channel.write(pending.toArray(new ByteBuffer[0]));
+					while (!pending.isEmpty() && !pending.peek().hasRemaining())
+						pending.poll();
+					if (!pending.isEmpty())
+						return;
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+	
+	@Override
+	public boolean queuesWrites() {
+		return true;
+	}
+	@Override
+	public long getPendingBytes() {
+		return pendingBytes;
+	}
+	
+	@Override
+	public boolean isClosed() {
+		return closed.get();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		close(null);
+	}
+	void close(IOException cause) {
+		if (!closed.compareAndSet(false, true))
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Already closing
+		}
+		synchronized (pending) {
+			pending.clear();
+			pendingBytes = 0;
+		}
+		PacketReceiver receiver = this.receiver;
+		if (receiver != null)
+			receiver.socketClosed(cause);
+	}
+	
+}
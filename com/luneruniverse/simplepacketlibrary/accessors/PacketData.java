@@ -5,6 +5,61 @@ package com.luneruniverse.simplepacketlibrary.accessors;
  */
 public class PacketData {
 	
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet that asks the other side to switch to compact frames <br>
+	 * The payload is the highest frame version that the sender supports
+	 */
+	public static final int HELLO = -2;
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet after which the sender only sends compact frames
+	 */
+	public static final int SWITCH = -3;
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet that starts a stream, whose id is the stream's id <br>
+	 * The payload is the header packet's type, as a varint, followed by the header packet
+	 */
+	public static final int STREAM_OPEN = -4;
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet that carries the next bytes of a stream
+	 */
+	public static final int STREAM_CHUNK = -5;
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet that ends a stream
+	 */
+	public static final int STREAM_END = -6;
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet that the receiver of a stream sends after reading some of it <br>
+	 * The payload is the number of bytes that were read, as a varint
+	 */
+	public static final int STREAM_ACK = -7;
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet that the receiver of a stream sends when it stops reading early
+	 */
+	public static final int STREAM_CANCEL = -8;
+	/**
+	 * Internal use only <br>
+	 * The type of the control packet that the sender of a stream sends when it can't finish the stream
+	 */
+	public static final int STREAM_ABORT = -9;
+	/**
+	 * Internal use only <br>
+	 * The bit in a compact frame's flags that is set if the frame includes a response id
+	 */
+	public static final int FLAG_RESPONSE = 1;
+	/**
+	 * Internal use only <br>
+	 * The bit in a compact frame's flags that is set if the payload is compressed <br>
+	 * The compressed payload starts with the decompressed length, as a varint
+	 */
+	public static final int FLAG_COMPRESSED = 2;
+	
 	/**
 	 * The id of the packet
 	 */
@@ -18,9 +73,25 @@ public class PacketData {
 	 */
 	public final int packetType;
 	/**
-	 * The packet's payload
+	 * The flags from a compact frame's header, or 0
+	 * @see #FLAG_COMPRESSED
+	 */
+	public final int flags;
+	/**
+	 * The array containing the packet's payload <br>
+	 * The payload may only be a slice of the array
+	 * @see #offset
+	 * @see #length
 	 */
 	public final byte[] data;
+	/**
+	 * Where the payload starts in {@link #data}
+	 */
+	public final int offset;
+	/**
+	 * The length of the payload
+	 */
+	public final int length;
 	
 	/**
 	 * Create a raw packet
@@ -30,10 +101,38 @@ public class PacketData {
 	 * @param data The payload
 	 */
 	public PacketData(int id, int responseId, int packetType, byte[] data) {
+		this(id, responseId, packetType, data, 0, data.length);
+	}
+	/**
+	 * Create a raw packet whose payload is a slice of an array
+	 * @param id The id
+	 * @param responseId The packet that this packet is responding to
+	 * @param packetType The type
+	 * @param data The array containing the payload
+	 * @param offset Where the payload starts
+	 * @param length The length of the payload
+	 */
+	public PacketData(int id, int responseId, int packetType, byte[] data, int offset, int length) {
+		this(id, responseId, packetType, 0, data, offset, length);
+	}
+	/**
+	 * Create a raw packet from a compact frame
+	 * @param id The id
+	 * @param responseId The packet that this packet is responding to
+	 * @param packetType The type
+	 * @param flags The flags from the header
+	 * @param data The array containing the payload
+	 * @param offset Where the payload starts
+	 * @param length The length of the payload
+	 */
+	public PacketData(int id, int responseId, int packetType, int flags, byte[] data, int offset, int length) {
 		this.id = id;
 		this.responseId = responseId;
 		this.packetType = packetType;
+		this.flags = flags;
 		this.data = data;
+		this.offset = offset;
+		this.length = length;
 	}
 	
 }
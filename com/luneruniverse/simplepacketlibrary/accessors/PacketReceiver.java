@@ -0,0 +1,21 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.io.IOException;
+
+/**
+ * Receives packets from a {@link SocketAccess} that reads on its own threads
+ * @see SocketAccess#startReading(PacketReceiver)
+ */
+public interface PacketReceiver {
+	/**
+	 * Called for each packet, in the order they were received, and never concurrently <br>
+	 * The payload may reference an internal buffer, so it is only valid until this returns
+	 * @param data The packet
+	 */
+	public void packetReceived(PacketData data);
+	/**
+	 * Called once when the socket closes, after which no more packets are received
+	 * @param cause The exception that closed the socket, or null if it was closed normally
+	 */
+	public void socketClosed(IOException cause);
+}
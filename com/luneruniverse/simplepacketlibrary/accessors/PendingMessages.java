@@ -0,0 +1,60 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+
+/**
+ * Keeps a running count of the bytes that a WebSocket has queued, but not yet written, without walking its queue <br>
+ * The size of every sent message is recorded, and the WebSocket writes its queue in order,
+ * so the messages that are still queued are the most recent ones, as many as the length of the queue <br>
+ * Frames that the WebSocket queues by itself, such as pongs, only delay the count until the queue drains
+ */
+class PendingMessages {
+	
+	private final WebSocket socket;
+	private int[] sizes; // A ring buffer of the sizes of the messages that may still be queued
+	private int head;
+	private int count;
+	private long bytes;
+	
+	PendingMessages(WebSocket socket) {
+		this.socket = socket;
+		this.sizes = new int[16];
+	}
+	
+	/**
+	 * Record a message after it has been passed to the WebSocket
+	 * @param size The size of the message
+	 */
+	synchronized void sent(int size) {
+		if (count == sizes.length) {
+			int[] newSizes = new int[sizes.length * 2];
+			for (int i = 0; i < count; i++)
+				newSizes[i] = sizes[(head + i) & (sizes.length - 1)];
+			sizes = newSizes;
+			head = 0;
+		}
+		sizes[(head + count) & (sizes.length - 1)] = size;
+		count++;
+		bytes += size;
+	}
+	
+	/**
+	 * Forget the messages that the WebSocket has written
+	 * @return The number of bytes that are still queued
+	 */
+	synchronized long getPendingBytes() {
+		int queued = (socket instanceof WebSocketImpl ? ((WebSocketImpl) socket).outQueue.size() : 0);
+		while (count > queued) {
+			bytes -= sizes[head];
+			head = (head + 1) & (sizes.length - 1);
+			count--;
+		}
+		if (count == 0 && sizes.length > 16) {
+			sizes = new int[16]; // Don't keep a large ring after a burst
+			head = 0;
+		}
+		return bytes;
+	}
+	
+}
@@ -1,7 +1,11 @@
 package com.luneruniverse.simplepacketlibrary.accessors;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.luneruniverse.simplepacketlibrary.TransportOptions;
 
 /**
  * The implementation for the raw socket mode for the server
@@ -9,6 +13,7 @@ import java.net.ServerSocket;
 public class RawServerAccess implements ServerAccess {
 	
 	private final ServerSocket socket;
+	private final TransportOptions options;
 	
 	/**
 	 * Internal use only <br>
@@ -17,11 +22,38 @@ public class RawServerAccess implements ServerAccess {
 	 */
 	public RawServerAccess(ServerSocket socket) {
 		this.socket = socket;
+		this.options = null;
+	}
+	/**
+	 * Internal use only <br>
+	 * Create and bind a raw server
+	 * @param port The port to start the server on
+	 * @param options The options for the server and the accepted sockets
+	 * @throws IOException If the server couldn't be started
+	 */
+	public RawServerAccess(int port, TransportOptions options) throws IOException {
+		this.socket = new ServerSocket();
+		this.options = options;
+		try {
+			options.configure(socket);
+			socket.bind(new InetSocketAddress(port), options.getBacklog());
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
 	}
 	
 	@Override
 	public SocketAccess accept() throws IOException {
-		return new RawSocketAccess(socket.accept());
+		Socket accepted = socket.accept();
+		try {
+			if (options != null)
+				options.configure(accepted);
+			return new RawSocketAccess(accepted);
+		} catch (IOException e) {
+			accepted.close();
+			throw e;
+		}
 	}
 	
 	@Override
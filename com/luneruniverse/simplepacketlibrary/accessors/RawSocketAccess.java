@@ -1,9 +1,13 @@
 package com.luneruniverse.simplepacketlibrary.accessors;
 
-import java.io.DataInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
 
 /**
  * The implementation for the raw socket mode for the server connection and client
@@ -11,8 +15,10 @@ import java.net.Socket;
 public class RawSocketAccess implements SocketAccess {
 	
 	private final Socket socket;
-	private final DataInputStream in;
+	private final InputStream in;
+	private final FrameDecoder decoder;
 	private final OutputStream out;
+	private ByteBuffer fileBuffer; // Created on the first file transfer
 	
 	/**
 	 * Internal use only <br>
@@ -22,21 +28,65 @@ public class RawSocketAccess implements SocketAccess {
 	 */
 	public RawSocketAccess(Socket socket) throws IOException {
 		this.socket = socket;
-		this.in = new DataInputStream(socket.getInputStream());
-		this.out = socket.getOutputStream();
+		this.in = socket.getInputStream();
+		this.decoder = new FrameDecoder(64 * 1024);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
 	}
 	
+	/**
+	 * Read in a packet from the internal socket <br>
+	 * The payload references an internal buffer, so it is only valid until the next call
+	 */
 	@Override
 	public PacketData readPacket() throws IOException {
-		return readPacket(in);
+		return decoder.read(in);
+	}
+	
+	@Override
+	public void setInboundLimits(int maxFrameSize, long maxQueuedBytes) {
+		decoder.setMaxFrameSize(maxFrameSize);
 	}
 	
 	@Override
-	public void sendPacket(byte[] data) throws IOException {
-		out.write(data);
+	public synchronized void sendPacket(ByteBuffer data) throws IOException {
+		write(data);
 		out.flush();
 	}
 	
+	@Override
+	public synchronized void sendPackets(List<ByteBuffer> data) throws IOException {
+		for (ByteBuffer packet : data)
+			write(packet);
+		out.flush();
+	}
+	/**
+	 * A plain socket has no channel for {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+	 * so the region is copied through a reused buffer instead of being read into a new array
+	 */
+	@Override
+	public synchronized void sendFileRegion(ByteBuffer header, FileChannel file, long position, int length) throws IOException {
+		write(header);
+		if (fileBuffer == null)
+			fileBuffer = ByteBuffer.allocate(64 * 1024);
+		while (length > 0) {
+			fileBuffer.clear().limit(Math.min(length, fileBuffer.capacity()));
+			SocketAccess.readFully(file, fileBuffer, position);
+			out.write(fileBuffer.array(), 0, fileBuffer.position());
+			position += fileBuffer.position();
+			length -= fileBuffer.position();
+		}
+		out.flush();
+	}
+	private void write(ByteBuffer data) throws IOException {
+		if (data.hasArray())
+			out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		else {
+			byte[] copy = new byte[data.remaining()];
+			data.duplicate().get(copy);
+			out.write(copy);
+		}
+	}
+	
 	@Override
 	public boolean isClosed() {
 		return socket.isClosed();
@@ -2,6 +2,10 @@ package com.luneruniverse.simplepacketlibrary.accessors;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * The interface for the different server modes
@@ -14,4 +18,27 @@ public interface ServerAccess extends Closeable {
 	 * @throws InterruptedException If the thread was interrupted
 	 */
 	public SocketAccess accept() throws IOException, InterruptedException;
+	/**
+	 * Send the same packet to several of this server's sockets <br>
+	 * Implementations may encode the packet once for all of the sockets <br>
+	 * If there is an exception, the packet will continue being sent to the other sockets before being re-thrown
+	 * @param data The packet, including the header
+	 * @param sockets The sockets to send the packet to
+	 * @throws IOException If there was an error sending the packet
+	 */
+	public default void broadcastPacket(ByteBuffer data, Collection<SocketAccess> sockets) throws IOException {
+		List<IOException> exceptions = new ArrayList<>();
+		for (SocketAccess socket : sockets) {
+			try {
+				socket.sendPacket(data.duplicate());
+			} catch (IOException e) {
+				exceptions.add(e);
+			}
+		}
+		if (!exceptions.isEmpty()) {
+			IOException e = new IOException("Error broadcasting packet");
+			exceptions.forEach(e::addSuppressed);
+			throw e;
+		}
+	}
 }
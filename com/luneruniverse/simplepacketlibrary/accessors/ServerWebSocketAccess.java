@@ -1,12 +1,8 @@
 package com.luneruniverse.simplepacketlibrary.accessors;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
 
 import org.java_websocket.WebSocket;
 
@@ -19,7 +15,8 @@ public class ServerWebSocketAccess implements SocketAccess {
 	
 	private ServerConnection connection;
 	private final WebSocket socket;
-	private final Queue<PacketData> packets;
+	private final MessageHandoff messages;
+	private final PendingMessages pending;
 	
 	/**
 	 * Internal use only <br>
@@ -28,7 +25,8 @@ public class ServerWebSocketAccess implements SocketAccess {
 	 */
 	public ServerWebSocketAccess(WebSocket socket) {
 		this.socket = socket;
-		this.packets = new ConcurrentLinkedQueue<>();
+		this.messages = new MessageHandoff();
+		this.pending = new PendingMessages(socket);
 	}
 	
 	public void setConnection(ServerConnection connection) {
@@ -40,25 +38,62 @@ public class ServerWebSocketAccess implements SocketAccess {
 	public ServerConnection getConnection() {
 		return connection;
 	}
+	WebSocket getSocket() {
+		return socket;
+	}
 	
+	/**
+	 * Not supported, since the packets are delivered by the WebSocket's callbacks
+	 * @see #startReading(PacketReceiver)
+	 */
+	@Override
+	public PacketData readPacket() throws IOException {
+		throw new IOException("Packets are delivered through startReading");
+	}
 	@Override
-	public PacketData readPacket() throws IOException, InterruptedException {
-		while (packets.isEmpty()) {
-			if (isClosed())
-				throw new EOFException();
-			Thread.sleep(1);
-		}
-		return packets.remove();
+	public void setInboundLimits(int maxFrameSize, long maxQueuedBytes) {
+		messages.setInboundLimits(maxFrameSize, maxQueuedBytes);
+	}
+	@Override
+	public boolean startReading(PacketReceiver receiver) {
+		messages.start(receiver);
+		return true;
 	}
 	void packetReceived(ByteBuffer message) throws IOException {
-		byte[] data = new byte[message.remaining()];
-		message.get(data);
-		packets.add(readPacket(new DataInputStream(new ByteArrayInputStream(data))));
+		messages.message(message);
+	}
+	void socketClosed(IOException cause) {
+		messages.closed(cause);
 	}
 	
 	@Override
-	public void sendPacket(byte[] data) throws IOException {
+	public void sendPacket(ByteBuffer data) throws IOException {
+		int size = data.remaining();
 		socket.send(data);
+		pending.sent(size);
+	}
+	@Override
+	public void sendBatch(List<ByteBuffer> data) throws IOException {
+		ByteBuffer message = MessageHandoff.join(data);
+		int size = message.remaining();
+		socket.send(message);
+		pending.sent(size);
+	}
+	/**
+	 * Record a message that was sent to this socket by a broadcast
+	 * @param size The size of the message
+	 */
+	void messageSent(int size) {
+		pending.sent(size);
+	}
+	
+	@Override
+	public boolean queuesWrites() {
+		return true;
+	}
+	@Override
+	public long getPendingBytes() {
+		return pending.getPendingBytes();
 	}
 	
 	@Override
@@ -69,6 +104,7 @@ public class ServerWebSocketAccess implements SocketAccess {
 	@Override
 	public void close() throws IOException {
 		socket.close();
+		messages.closed(null);
 	}
 	
 }
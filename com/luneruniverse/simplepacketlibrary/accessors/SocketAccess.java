@@ -2,8 +2,13 @@ package com.luneruniverse.simplepacketlibrary.accessors;
 
 import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
 
 import com.luneruniverse.simplepacketlibrary.ServerConnection;
 
@@ -12,25 +17,106 @@ import com.luneruniverse.simplepacketlibrary.ServerConnection;
  */
 public interface SocketAccess extends Closeable {
 	/**
-	 * Read in a packet from the internal socket
+	 * Read in a packet from the internal socket <br>
+	 * The payload may reference an internal buffer, so it is only valid until the next call
 	 * @return The read packet
 	 * @throws IOException If there was an error reading the packet
 	 * @throws InterruptedException If the thread was interrupted
 	 * @see #readPacket(DataInputStream)
 	 */
 	public PacketData readPacket() throws IOException, InterruptedException;
+	/**
+	 * Start delivering packets from the socket's own threads, instead of having a dedicated thread call {@link #readPacket()} <br>
+	 * Implementations that return true must call {@link PacketReceiver#socketClosed(IOException)} once the socket closes,
+	 * including when {@link #close()} is called
+	 * @param receiver Where to deliver the packets
+	 * @return If the socket will deliver the packets, or false if {@link #readPacket()} should be used
+	 */
+	public default boolean startReading(PacketReceiver receiver) {
+		return false;
+	}
+	/**
+	 * Send a packet to the internal socket <br>
+	 * The buffer's remaining bytes are sent, and the buffer may be reused once this returns,
+	 * so implementations that send asynchronously must copy it
+	 * @param data The data to send
+	 * @throws IOException If there was an error sending the packet
+	 */
+	public void sendPacket(ByteBuffer data) throws IOException;
 	/**
 	 * Send a packet to the internal socket
 	 * @param data The data to send
 	 * @throws IOException If there was an error sending the packet
 	 */
-	public void sendPacket(byte[] data) throws IOException;
+	public default void sendPacket(byte[] data) throws IOException {
+		sendPacket(ByteBuffer.wrap(data));
+	}
+	/**
+	 * Send multiple packets to the internal socket, in order <br>
+	 * Implementations may combine the packets into fewer writes <br>
+	 * The buffers may be reused once this returns
+	 * @param data The packets to send
+	 * @throws IOException If there was an error sending the packets
+	 */
+	public default void sendPackets(List<ByteBuffer> data) throws IOException {
+		for (ByteBuffer packet : data)
+			sendPacket(packet);
+	}
+	/**
+	 * Send multiple packets to the internal socket, in order, as a single message if the socket has message boundaries <br>
+	 * The other side splits the message back into packets <br>
+	 * The buffers may be reused once this returns
+	 * @param data The packets to send
+	 * @throws IOException If there was an error sending the packets
+	 * @see #sendPackets(List)
+	 */
+	public default void sendBatch(List<ByteBuffer> data) throws IOException {
+		sendPackets(data);
+	}
+	/**
+	 * Send a packet whose body is a region of a file <br>
+	 * Implementations that write to a socket channel can transfer the body without copying it through the JVM <br>
+	 * By default, the region is read into memory and sent with {@link #sendPacket(ByteBuffer)}
+	 * @param header The packet's header, which may be reused once this returns
+	 * @param file The file
+	 * @param position Where the body starts in the file
+	 * @param length The length of the body
+	 * @throws IOException If there was an error reading the file or sending the packet
+	 */
+	public default void sendFileRegion(ByteBuffer header, FileChannel file, long position, int length) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(header.remaining() + length);
+		data.put(header);
+		readFully(file, data, position);
+		data.flip();
+		sendPacket(data);
+	}
+	/**
+	 * @return If sending queues the data instead of blocking until it has been written
+	 */
+	public default boolean queuesWrites() {
+		return false;
+	}
+	/**
+	 * @return The number of bytes that have been sent, but are still waiting to be written
+	 * @see #queuesWrites()
+	 */
+	public default long getPendingBytes() {
+		return 0;
+	}
 	/**
 	 * Check if the internal socket has been closed
 	 * @return If the internal socket is closed
 	 */
 	public boolean isClosed();
 	
+	/**
+	 * Limit the memory that received packets can use <br>
+	 * Exceeding a limit throws, or closes the socket with, an {@link InboundLimitException}
+	 * @param maxFrameSize The largest payload that is accepted, in bytes, or -1 for no limit
+	 * @param maxQueuedBytes The most bytes that can wait to be delivered, for sockets that buffer received packets, or -1 for no limit
+	 */
+	public default void setInboundLimits(int maxFrameSize, long maxQueuedBytes) {}
+	
 	/**
 	 * Pass the {@link ServerConnection} to the socket implementation
 	 * @param serverConnection The connection
@@ -44,11 +130,36 @@ public interface SocketAccess extends Closeable {
 	 * @throws IOException If there was an exception while parsing the packet
 	 */
 	public default PacketData readPacket(DataInputStream in) throws IOException {
+		return readPacket(in, -1);
+	}
+	/**
+	 * Parse a raw packet from a data stream <br>
+	 * The payload's array grows as the payload is read, so a claimed length that is never sent doesn't allocate the full length
+	 * @param in The data stream
+	 * @param maxFrameSize The largest payload that is accepted, in bytes, or -1 for no limit
+	 * @return The raw packet
+	 * @throws IOException If there was an exception while parsing the packet
+	 * @throws InboundLimitException If the payload is larger than the limit
+	 */
+	public default PacketData readPacket(DataInputStream in, int maxFrameSize) throws IOException {
 		int id = in.readInt();
 		int responseId = in.readInt();
 		int packetType = in.readInt();
-		byte[] data = new byte[in.readInt()];
-		readBlockingArray(in, data, 0, data.length);
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Received a packet with a negative length!");
+		if (maxFrameSize != -1 && length > maxFrameSize)
+			throw new InboundLimitException("Received a packet of " + length + " bytes, which is larger than the limit of " + maxFrameSize + " bytes!");
+		byte[] data = new byte[Math.min(length, 64 * 1024)];
+		int read = 0;
+		while (read < length) {
+			if (read == data.length)
+				data = Arrays.copyOf(data, (int) Math.min(length, data.length * 2L));
+			int readNow = readBlockingArray(in, data, read, data.length - read);
+			if (readNow < data.length - read)
+				throw new EOFException();
+			read += readNow;
+		}
 		
 		return new PacketData(id, responseId, packetType, data);
 	}
@@ -71,4 +182,19 @@ public interface SocketAccess extends Closeable {
 		}
 		return numRead;
 	}
+	/**
+	 * Fill the remaining space in a buffer from a file
+	 * @param file The file to read from
+	 * @param dest The target buffer
+	 * @param position Where to start reading in the file
+	 * @throws IOException If there was an exception while reading, or the file ended first
+	 */
+	public static void readFully(FileChannel file, ByteBuffer dest, long position) throws IOException {
+		while (dest.hasRemaining()) {
+			int read = file.read(dest, position);
+			if (read < 0)
+				throw new EOFException("The file ended before the region did!");
+			position += read;
+		}
+	}
 }
@@ -3,10 +3,14 @@ package com.luneruniverse.simplepacketlibrary.accessors;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.net.ssl.SSLContext;
 
@@ -17,6 +21,8 @@ import org.java_websocket.server.WebSocketServer;
 
 import com.luneruniverse.simplepacketlibrary.Server;
 import com.luneruniverse.simplepacketlibrary.ServerConnection;
+import com.luneruniverse.simplepacketlibrary.TransportOptions;
+import com.luneruniverse.simplepacketlibrary.WebSocketOptions;
 import com.luneruniverse.simplepacketlibrary.listeners.ErrorHandler;
 
 /**
@@ -26,19 +32,30 @@ public class WebServerAccess extends WebSocketServer implements ServerAccess {
 	
 	private final Server server;
 	private final Map<WebSocket, ServerWebSocketAccess> connections;
-	private final Queue<ServerWebSocketAccess> connectionsQueue;
+	private final BlockingQueue<ServerWebSocketAccess> connectionsQueue;
 	
 	/**
 	 * Internal use only <br>
 	 * Create a WebServer
 	 * @param server The actual server
 	 * @param ssl The SSL certificate
+	 * @param options The WebSocket options, or null for the defaults
+	 * @param transport The socket options
 	 */
-	public WebServerAccess(Server server, SSLContext ssl) {
-		super(new InetSocketAddress(server.getPort()));
+	public WebServerAccess(Server server, SSLContext ssl, WebSocketOptions options, TransportOptions transport) {
+		super(new InetSocketAddress(server.getPort()),
+				transport.getWebSocketDecoders() == 0 ? Runtime.getRuntime().availableProcessors() : transport.getWebSocketDecoders(),
+				Collections.singletonList(WebSocketDrafts.create(options, server.getMaxFrameSize())));
 		this.server = server;
-		this.connections = new WeakHashMap<>();
-		this.connectionsQueue = new ConcurrentLinkedQueue<>();
+		this.connections = new ConcurrentHashMap<>();
+		this.connectionsQueue = new LinkedBlockingQueue<>();
+		setTcpNoDelay(transport.isTcpNoDelay());
+		if (transport.getReuseAddress() != null)
+			setReuseAddr(transport.getReuseAddress());
+		if (transport.getBacklog() > 0)
+			setMaxPendingConnections(transport.getBacklog());
+		if (transport.getReceiveBufferSize() > 0)
+			setReceiveBufferSize(transport.getReceiveBufferSize());
 		if (ssl != null)
 			setWebSocketFactory(new DefaultSSLWebSocketServerFactory(ssl));
 		this.start();
@@ -63,10 +80,18 @@ public class WebServerAccess extends WebSocketServer implements ServerAccess {
 	
 	@Override
 	public void onMessage(WebSocket conn, ByteBuffer message) {
+		ServerWebSocketAccess access = connections.get(conn);
+		if (access == null)
+			return;
 		try {
-			connections.get(conn).packetReceived(message);
+			access.packetReceived(message);
+		} catch (InboundLimitException e) {
+			ServerConnection connection = access.getConnection();
+			if (connection != null)
+				connection.onError(e, connection, ErrorHandler.Error.EXCEEDED_INBOUND_LIMIT);
+			conn.close();
 		} catch (IOException e) {
-			ServerConnection connection = connections.get(conn).getConnection();
+			ServerConnection connection = access.getConnection();
 			if (connection != null)
 				connection.onError(e, connection, ErrorHandler.Error.READING_WEBSOCKET_PACKET);
 		}
@@ -74,7 +99,11 @@ public class WebServerAccess extends WebSocketServer implements ServerAccess {
 	
 	@Override
 	public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-		connectionsQueue.remove(connections.remove(conn));
+		ServerWebSocketAccess access = connections.remove(conn);
+		if (access != null) {
+			connectionsQueue.remove(access);
+			access.socketClosed(null);
+		}
 	}
 	
 	@Override
@@ -82,7 +111,8 @@ public class WebServerAccess extends WebSocketServer implements ServerAccess {
 		if (conn == null)
 			server.onError(e, server, ErrorHandler.Error.GENERIC_WEBSOCKET);
 		else {
-			ServerConnection connection = connections.get(conn).getConnection();
+			ServerWebSocketAccess access = connections.get(conn);
+			ServerConnection connection = (access == null ? null : access.getConnection());
 			if (connection != null)
 				connection.onError(e, connection, ErrorHandler.Error.GENERIC_WEBSOCKET);
 		}
@@ -90,15 +120,26 @@ public class WebServerAccess extends WebSocketServer implements ServerAccess {
 	
 	@Override
 	public SocketAccess accept() throws IOException, InterruptedException {
-		while (connectionsQueue.isEmpty()) {
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-				close();
-				throw e;
-			}
+		try {
+			return connectionsQueue.take();
+		} catch (InterruptedException e) {
+			close();
+			throw e;
 		}
-		return connectionsQueue.remove();
+	}
+	
+	/**
+	 * Uses the WebSocket's broadcast, so the frame is only encoded once for all of the sockets
+	 */
+	@Override
+	public void broadcastPacket(ByteBuffer data, Collection<SocketAccess> sockets) {
+		List<WebSocket> clients = new ArrayList<>(sockets.size());
+		for (SocketAccess socket : sockets)
+			clients.add(((ServerWebSocketAccess) socket).getSocket());
+		int size = data.remaining();
+		broadcast(data, clients);
+		for (SocketAccess socket : sockets)
+			((ServerWebSocketAccess) socket).messageSent(size);
 	}
 	
 	@Override
@@ -0,0 +1,44 @@
+package com.luneruniverse.simplepacketlibrary.accessors;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import com.luneruniverse.simplepacketlibrary.WebSocketOptions;
+
+/**
+ * Creates the drafts that the WebSockets negotiate with, so the Java-WebSocket types stay out of the public API
+ */
+class WebSocketDrafts {
+	
+	private WebSocketDrafts() {}
+	
+	/**
+	 * Create the draft that a WebSocket negotiates with, including the extensions <br>
+	 * The draft rejects messages that can't hold a packet within the frame size limit before assembling them
+	 * @param options The WebSocket options, or null for the defaults
+	 * @param maxFrameSize The largest payload that is accepted, in bytes, or -1 for no limit
+	 * @return The draft
+	 */
+	static Draft create(WebSocketOptions options, int maxFrameSize) {
+		List<IExtension> extensions = Collections.emptyList();
+		if (options != null && options.isPerMessageDeflate()) {
+			PerMessageDeflateExtension extension = new PerMessageDeflateExtension(options.getCompressionLevel());
+			extension.setThreshold(options.getCompressionThreshold());
+			extension.setServerNoContextTakeover(options.isServerNoContextTakeover());
+			extension.setClientNoContextTakeover(options.isClientNoContextTakeover());
+			extensions = Collections.singletonList(extension);
+		}
+		List<IProtocol> protocols = Collections.singletonList(new Protocol(""));
+		if (maxFrameSize == -1 || maxFrameSize > Integer.MAX_VALUE - FrameDecoder.MAX_HEADER_SIZE)
+			return new Draft_6455(extensions, protocols, Integer.MAX_VALUE);
+		return new Draft_6455(extensions, protocols, maxFrameSize + FrameDecoder.MAX_HEADER_SIZE);
+	}
+	
+}
@@ -60,10 +60,30 @@ public interface ErrorHandler<T> {
 		 * A packet listener threw an exception
 		 */
 		INSIDE_PACKET_LISTENER(CloseInfo.NOTHING),
+		/**
+		 * A writability listener threw an exception
+		 */
+		INSIDE_WRITABILITY_LISTENER(CloseInfo.NOTHING),
+		/**
+		 * A stream listener threw an exception
+		 */
+		INSIDE_STREAM_LISTENER(CloseInfo.NOTHING),
 		/**
 		 * There was an exception while closing the connection
 		 */
 		CLOSING_CONNECTION(CloseInfo.CLOSE_CONNECTION),
+		/**
+		 * There was an exception while writing queued packets
+		 */
+		SENDING_PACKETS(CloseInfo.CLOSE_CONNECTION),
+		/**
+		 * A received packet was larger than the maximum frame size, or too many received bytes were waiting to be handled
+		 */
+		EXCEEDED_INBOUND_LIMIT(CloseInfo.CLOSE_CONNECTION),
+		/**
+		 * A task that runs after a delay, such as a response timeout, threw an exception
+		 */
+		RUNNING_SCHEDULED_TASK(CloseInfo.NOTHING),
 		
 		// Server Side
 		/**
@@ -74,6 +94,10 @@ public interface ErrorHandler<T> {
 		 * A connection listener threw an exception
 		 */
 		INSIDE_CONNECTION_LISTENER(CloseInfo.NOTHING),
+		/**
+		 * An event loop failed, so the connections that it handled were closed
+		 */
+		HANDLING_CONNECTIONS(CloseInfo.CLOSE_CONNECTION),
 		
 		// WebSocket
 		/**
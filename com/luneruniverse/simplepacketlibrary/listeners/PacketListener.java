@@ -20,4 +20,14 @@ public interface PacketListener {
 	 * @see Client
 	 */
 	public void onPacket(Packet packet, Connection connection, WaitState wait) throws Exception;
+	/**
+	 * Called when this is a response listener and its timeout expires <br>
+	 * The listener won't receive any more responses afterwards
+	 * @param packetId The id of the packet that was waiting for a response
+	 * @param connection What connection the packet was sent from
+	 * @throws Exception If there was an exception handling the timeout
+	 * @see Connection#setTimeout(int)
+	 * @see Connection#sendPacket(Packet, PacketListener)
+	 */
+	public default void onTimeout(int packetId, Connection connection) throws Exception {}
 }
@@ -0,0 +1,29 @@
+package com.luneruniverse.simplepacketlibrary.listeners;
+
+import java.io.InputStream;
+
+import com.luneruniverse.simplepacketlibrary.Client;
+import com.luneruniverse.simplepacketlibrary.Connection;
+import com.luneruniverse.simplepacketlibrary.ServerConnection;
+import com.luneruniverse.simplepacketlibrary.packets.Packet;
+
+/**
+ * Called when a stream is received
+ * @see Connection#sendStream(Packet)
+ */
+@FunctionalInterface
+public interface StreamListener {
+	/**
+	 * Called when a stream is received, on its own thread, while the stream's chunks are still arriving <br>
+	 * The listeners are called one after the other with the same stream, which is closed once they have all returned,
+	 * so listeners that don't want the stream can ignore it <br>
+	 * Closing the stream before it has been read to the end cancels it
+	 * @param header The packet that was sent with the stream, which can be replied to
+	 * @param in The stream's body
+	 * @param connection What connection the stream is from
+	 * @throws Exception If there was an exception handling the stream
+	 * @see ServerConnection
+	 * @see Client
+	 */
+	public void onStream(Packet header, InputStream in, Connection connection) throws Exception;
+}
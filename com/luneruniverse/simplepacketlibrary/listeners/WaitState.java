@@ -1,5 +1,7 @@
 package com.luneruniverse.simplepacketlibrary.listeners;
 
+import java.util.concurrent.CountDownLatch;
+
 import com.luneruniverse.simplepacketlibrary.Connection;
 import com.luneruniverse.simplepacketlibrary.packets.Packet;
 
@@ -12,26 +14,42 @@ import com.luneruniverse.simplepacketlibrary.packets.Packet;
  */
 public class WaitState {
 	
+	private final CountDownLatch latch;
 	private boolean wait;
 	
 	/**
 	 * Create a new WaitState, with waiting enabled
 	 */
 	public WaitState() {
-		wait = true;
+		this(null);
+	}
+	/**
+	 * Internal use only <br>
+	 * Create a new WaitState, with waiting enabled, that counts down the latch once it stops waiting
+	 * @param latch The latch to count down, or null
+	 */
+	public WaitState(CountDownLatch latch) {
+		this.latch = latch;
+		this.wait = true;
 	}
 	
 	/**
 	 * Stop waiting for the {@link PacketListener}s to finish executing before handling another {@link Packet}
 	 */
 	public void dontWait() {
-		wait = false;
+		synchronized (this) {
+			if (!wait)
+				return;
+			wait = false;
+		}
+		if (latch != null)
+			latch.countDown();
 	}
 	
 	/**
 	 * @return If the {@link Connection} is waiting for the {@link PacketListener} to finish
 	 */
-	public boolean isWaiting() {
+	public synchronized boolean isWaiting() {
 		return wait;
 	}
 	
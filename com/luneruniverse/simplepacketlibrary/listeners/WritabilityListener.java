@@ -0,0 +1,21 @@
+package com.luneruniverse.simplepacketlibrary.listeners;
+
+import com.luneruniverse.simplepacketlibrary.Connection;
+
+/**
+ * Called when a connection's pending bytes cross its watermarks
+ * @see Connection#setWriteBufferWatermarks(long, long)
+ */
+@FunctionalInterface
+public interface WritabilityListener {
+	/**
+	 * Called when the connection becomes unwritable, because its pending bytes reached the high watermark,
+	 * and when it becomes writable again, because they dropped to the low watermark <br>
+	 * This is called on the thread that noticed the change, so it must not block
+	 * @param connection The connection
+	 * @param writable If the connection is now writable
+	 * @throws Exception If there was an exception handling the change
+	 * @see Connection#isWritable()
+	 */
+	public void onWritabilityChanged(Connection connection, boolean writable) throws Exception;
+}
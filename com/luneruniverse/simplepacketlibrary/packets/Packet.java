@@ -10,6 +10,26 @@ import java.io.IOException;
  * @see com.luneruniverse.simplepacketlibrary.PacketRegistry#registerPacket(Class)
  */
 public abstract class Packet {
+	
+	private PacketContext context;
+	
+	/**
+	 * Get where and when this packet was received
+	 * @return The context, or null if this packet was created locally instead of received
+	 * @see com.luneruniverse.simplepacketlibrary.Connection#reply(Packet, Packet)
+	 */
+	public final PacketContext getContext() {
+		return context;
+	}
+	/**
+	 * Internal use only <br>
+	 * Set when the packet is received, before any listener sees it
+	 * @param context The context
+	 */
+	public final void setContext(PacketContext context) {
+		this.context = context;
+	}
+	
 	/**
 	 * Saves the packet data to a stream
 	 * @param out The stream to save the data to
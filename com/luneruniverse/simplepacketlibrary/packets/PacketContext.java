@@ -0,0 +1,57 @@
+package com.luneruniverse.simplepacketlibrary.packets;
+
+import com.luneruniverse.simplepacketlibrary.Connection;
+
+/**
+ * Where and when a received {@link Packet} came from, which is what a reply needs to reference it
+ * @see Packet#getContext()
+ * @see Connection#reply(Packet, Packet)
+ */
+public final class PacketContext {
+	
+	private final int id;
+	private final int responseId;
+	private final Connection connection;
+	private final long receivedAt;
+	
+	/**
+	 * Internal use only <br>
+	 * Create the context of a received packet
+	 * @param id The id that the sender gave the packet
+	 * @param responseId The packet that the received packet is responding to, or -1
+	 * @param connection The connection that received the packet
+	 * @param receivedAt When the packet was received, from {@link System#currentTimeMillis()}
+	 */
+	public PacketContext(int id, int responseId, Connection connection, long receivedAt) {
+		this.id = id;
+		this.responseId = responseId;
+		this.connection = connection;
+		this.receivedAt = receivedAt;
+	}
+	
+	/**
+	 * @return The id that the sender gave the packet
+	 */
+	public int getId() {
+		return id;
+	}
+	/**
+	 * @return The id of the packet that the received packet is responding to, or -1 if it isn't a response
+	 */
+	public int getResponseId() {
+		return responseId;
+	}
+	/**
+	 * @return The connection that received the packet
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+	/**
+	 * @return When the packet was received, in milliseconds from {@link System#currentTimeMillis()}
+	 */
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+	
+}
@@ -0,0 +1,94 @@
+package test;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.luneruniverse.simplepacketlibrary.Client;
+import com.luneruniverse.simplepacketlibrary.Connection;
+import com.luneruniverse.simplepacketlibrary.DeflateCompression;
+import com.luneruniverse.simplepacketlibrary.Server;
+import com.luneruniverse.simplepacketlibrary.packets.Packet;
+import com.luneruniverse.simplepacketlibrary.packets.PrimitivePacket;
+
+public class SimplePacketLibraryTest5 {
+	
+	public static void main(String[] args) throws Exception {
+		// Create the server and client, both asking for compact frames and compression
+		Server server = new Server(31415).setCompactFrames(true).setCompression(new DeflateCompression(), 64)
+				.addServerErrorHandler((e, obj, info) -> e.printStackTrace())
+				.addConnectionErrorHandler((e, obj, info) -> e.printStackTrace());
+		Client client = new Client("localhost", 31415).setCompactFrames(true).setCompression(new DeflateCompression(), 64)
+				.addErrorHandler((e, obj, info) -> e.printStackTrace());
+		
+		// Create a file to send
+		byte[] contents = new byte[1024 * 1024];
+		new Random(31415).nextBytes(contents);
+		Path file = Files.createTempFile("simple-packet-library", ".bin");
+		Path received = Files.createTempFile("simple-packet-library", ".bin");
+		Files.write(file, contents);
+		
+		// Handle packets from the client
+		server.addPacketListener((packet, connection, wait) -> {
+			if (packet instanceof PrimitivePacket) {
+				PrimitivePacket castedPacket = (PrimitivePacket) packet;
+				if (castedPacket.isString() && castedPacket.getValue().equals("ping")) {
+					char[] pong = new char[10000];
+					Arrays.fill(pong, 'o');
+					connection.reply(packet, new PrimitivePacket("p" + new String(pong) + "ng")); // Large enough to be compressed
+				}
+			}
+		});
+		
+		// Handle streams from the client
+		CountDownLatch streams = new CountDownLatch(2);
+		server.addStreamListener((header, in, connection) -> {
+			String name = (String) ((PrimitivePacket) header).getValue();
+			if (name.equals("file")) {
+				long length = Connection.receiveFile(in, received);
+				System.out.println("[Client -> Server] file: " + length + " bytes, matches: " + Arrays.equals(contents, Files.readAllBytes(received)));
+			} else {
+				long length = 0;
+				byte[] buf = new byte[8192];
+				int read;
+				while ((read = in.read(buf)) != -1)
+					length += read;
+				System.out.println("[Client -> Server] " + name + ": " + length + " bytes");
+			}
+			streams.countDown();
+		});
+		
+		// Start the server and client
+		server.start();
+		client.start();
+		
+		// The frames and compression are agreed on by the first packets
+		Packet packet = client.sendPacketWithResponse(new PrimitivePacket("ping"));
+		System.out.println("[Server -> Client] " + ((String) ((PrimitivePacket) packet).getValue()).length() + " characters");
+		System.out.println("Compact frames: " + client.isCompactFrames());
+		System.out.println("Compressing: " + client.isCompressing());
+		
+		// Send a stream, which is split into chunks that don't hold up other packets
+		try (OutputStream out = client.sendStream(new PrimitivePacket("stream"))) {
+			for (int i = 0; i < 16; i++)
+				out.write(contents, 0, 64 * 1024);
+		}
+		
+		// Send the file, which is received as a stream
+		client.sendFile(file, new PrimitivePacket("file"));
+		
+		System.out.println("Received all streams: " + streams.await(10, TimeUnit.SECONDS));
+		
+		// Stop the server
+		server.close();
+		Files.delete(file);
+		Files.delete(received);
+		
+		// The client is automatically disconnected and will close too
+	}
+	
+}
@@ -0,0 +1,76 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.luneruniverse.simplepacketlibrary.Client;
+import com.luneruniverse.simplepacketlibrary.DispatchMode;
+import com.luneruniverse.simplepacketlibrary.Server;
+import com.luneruniverse.simplepacketlibrary.packets.Packet;
+import com.luneruniverse.simplepacketlibrary.packets.PrimitivePacket;
+
+public class SimplePacketLibraryTest6 {
+	
+	private static final int PACKETS = 1000;
+	private static final int KEYS = 4;
+	
+	public static void main(String[] args) throws Exception {
+		// The key of a packet like "k2:15" is "k2"
+		Function<Packet, Object> key = packet -> ((String) ((PrimitivePacket) packet).getValue()).split(":")[0];
+		
+		for (DispatchMode mode : DispatchMode.values()) {
+			// Create the server and client
+			int port = 31415 + mode.ordinal();
+			Server server = new Server(port).setDispatchMode(mode, mode == DispatchMode.KEYED ? key : null)
+					.addServerErrorHandler((e, obj, info) -> e.printStackTrace())
+					.addConnectionErrorHandler((e, obj, info) -> e.printStackTrace());
+			Client client = new Client("localhost", port)
+					.addErrorHandler((e, obj, info) -> e.printStackTrace());
+			
+			// Record the order that each key's packets are handled in, and which threads handle them
+			Map<Object, List<Integer>> handled = new ConcurrentHashMap<>();
+			Set<Long> threads = ConcurrentHashMap.newKeySet();
+			CountDownLatch done = new CountDownLatch(PACKETS);
+			server.addPacketListener((packet, connection, wait) -> {
+				String value = (String) ((PrimitivePacket) packet).getValue();
+				List<Integer> order = handled.computeIfAbsent(key.apply(packet), k -> new ArrayList<>());
+				synchronized (order) {
+					order.add(Integer.parseInt(value.split(":")[1]));
+				}
+				threads.add(Thread.currentThread().getId());
+				done.countDown();
+			});
+			
+			// Start the server and client
+			server.start();
+			client.start();
+			
+			// Send packets with a few different keys
+			for (int i = 0; i < PACKETS; i++)
+				client.sendPacket(new PrimitivePacket("k" + (i % KEYS) + ":" + i));
+			
+			boolean all = done.await(10, TimeUnit.SECONDS);
+			boolean inOrder = true;
+			for (List<Integer> order : handled.values()) {
+				synchronized (order) {
+					for (int i = 1; i < order.size(); i++)
+						inOrder &= order.get(i - 1) < order.get(i);
+				}
+			}
+			// INLINE, SERIAL and KEYED keep each key's packets in order, while PARALLEL doesn't promise any order
+			System.out.println(mode + ": handled all " + all + ", each key in order " + inOrder + ", on " + threads.size() + " thread(s)");
+			
+			// Stop the server
+			server.close();
+		}
+		
+		// The clients are automatically disconnected and will close too
+	}
+	
+}